@@ -0,0 +1,175 @@
+package org.phonybone.sprites;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+
+/**
+ * A small benchmark harness. Each benchmark is an operation run in
+ * a loop: first for a warm-up period so the JIT settles, then for a
+ * number of timed iterations. For every iteration we record the time
+ * per operation and, using the HotSpot per-thread allocation counter,
+ * the bytes allocated per operation, along with the collections (and
+ * time spent collecting) the iterations caused.
+ * <p>
+ * Results print one line per benchmark in a fixed format so runs can
+ * be diffed against a saved baseline.
+ */
+public abstract class Bench {
+    /** Consumes benchmark results so the JIT cannot discard the work */
+    public static volatile double sink;
+
+    private static final com.sun.management.ThreadMXBean threads=threadBean();
+
+    private String name;
+    /** How many units of work (pairs, sprites, ...) one op does, for throughput */
+    private long unitsPerOp;
+    private String unitName;
+
+    public Bench(String name, long unitsPerOp, String unitName) {
+	this.name=name;
+	this.unitsPerOp=unitsPerOp;
+	this.unitName=unitName;
+    }
+
+    /** Called once before warm-up */
+    public void setup() {
+    }
+
+    /** One operation */
+    public abstract void op();
+
+    public String getName() {
+	return name;
+    }
+
+    /**
+     * Warm up, then time the benchmark.
+     *
+     * @param warmupMillis How long to spin before measuring
+     * @param iterations Number of measured iterations
+     * @param iterationMillis Target length of each measured iteration
+     */
+    public Result run(long warmupMillis, int iterations, long iterationMillis) {
+	setup();
+	long end=System.currentTimeMillis()+warmupMillis;
+	long ops=0;
+	while (System.currentTimeMillis()<end) {
+	    op();
+	    ops++;
+	}
+
+	Result r=new Result(this);
+	for (int it=0; it<iterations; it++) {
+	    long n=0;
+	    long gcCount0=gcCount(), gcMillis0=gcMillis();
+	    long bytes0=allocatedBytes();
+	    long t0=System.nanoTime();
+	    long stop=t0+iterationMillis*1000000L;
+	    long t1;
+	    do {
+		op();
+		n++;
+		t1=System.nanoTime();
+	    } while (t1<stop);
+	    long bytes=allocatedBytes()-bytes0;
+	    r.add(n, t1-t0, bytes, gcCount()-gcCount0, gcMillis()-gcMillis0);
+	}
+	return r;
+    }
+
+    public Result run() {
+	return run(2000, 5, 1000);
+    }
+
+    /** Bytes allocated so far by the current thread, or -1 if unsupported */
+    public static long allocatedBytes() {
+	if (threads==null) return -1;
+	return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /** Collections so far, over all collectors */
+    public static long gcCount() {
+	long n=0;
+	for (Iterator it=ManagementFactory.getGarbageCollectorMXBeans().iterator(); it.hasNext(); ) {
+	    n+=Math.max(0, ((GarbageCollectorMXBean)it.next()).getCollectionCount());
+	}
+	return n;
+    }
+
+    /** Milliseconds spent collecting so far, over all collectors */
+    public static long gcMillis() {
+	long t=0;
+	for (Iterator it=ManagementFactory.getGarbageCollectorMXBeans().iterator(); it.hasNext(); ) {
+	    t+=Math.max(0, ((GarbageCollectorMXBean)it.next()).getCollectionTime());
+	}
+	return t;
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+	java.lang.management.ThreadMXBean bean=ManagementFactory.getThreadMXBean();
+	if (!(bean instanceof com.sun.management.ThreadMXBean)) return null;
+	com.sun.management.ThreadMXBean sun=(com.sun.management.ThreadMXBean)bean;
+	if (!sun.isThreadAllocatedMemorySupported()) return null;
+	sun.setThreadAllocatedMemoryEnabled(true);
+	return sun;
+    }
+
+    /**
+     * The measurements for one benchmark
+     */
+    public static class Result {
+	private Bench bench;
+	private long ops;
+	private long nanos;
+	private long bytes;
+	private long gcCount;
+	private long gcMillis;
+	private double bestNanosPerOp=Double.MAX_VALUE;
+
+	Result(Bench bench) {
+	    this.bench=bench;
+	}
+
+	void add(long ops, long nanos, long bytes, long gcCount, long gcMillis) {
+	    this.ops+=ops;
+	    this.nanos+=nanos;
+	    this.bytes+=bytes;
+	    this.gcCount+=gcCount;
+	    this.gcMillis+=gcMillis;
+	    bestNanosPerOp=Math.min(bestNanosPerOp, (double)nanos/ops);
+	}
+
+	public double getNanosPerOp() {
+	    return (double)nanos/ops;
+	}
+
+	public double getUnitsPerSecond() {
+	    return bench.unitsPerOp*1e9/getNanosPerOp();
+	}
+
+	/** Mean bytes allocated per operation (the measuring loop itself allocates nothing) */
+	public double getBytesPerOp() {
+	    return bytes<0 ? -1 : (double)bytes/ops;
+	}
+
+	public String getName() {
+	    return bench.name;
+	}
+
+	/** Collections during the measured iterations */
+	public long getGcCount() {
+	    return gcCount;
+	}
+
+	/** Time spent in those collections */
+	public long getGcMillis() {
+	    return gcMillis;
+	}
+
+	public String toString() {
+	    return String.format("%-40s %14.1f ns/op (best %.1f) %14.4g %s/s %12.1f B/op %4d gc %5d ms",
+				 bench.name, getNanosPerOp(), bestNanosPerOp,
+				 getUnitsPerSecond(), bench.unitName, getBytesPerOp(), gcCount, gcMillis);
+	}
+    }
+}
@@ -0,0 +1,76 @@
+package org.phonybone.sprites;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Runs every benchmark suite (physics, collisions, rendering, sprite
+ * loading, checkpoints). Results can be saved as a baseline and later
+ * runs compared against it, so each performance change can be judged by numbers.
+ * <p>
+ * Usage: BenchSuite [-only regex] [-save file] [-baseline file] [-quick]
+ * <p>
+ * Sprites are loaded from the classpath, so run with the game's build
+ * directory (which holds sprites/) on it.
+ */
+public class BenchSuite {
+
+    public static void main(String argv[]) throws IOException {
+	String only=null, save=null, baseline=null;
+	boolean quick=false;
+	for (int i=0; i<argv.length; i++) {
+	    if (argv[i].equals("-only")) only=argv[++i];
+	    else if (argv[i].equals("-save")) save=argv[++i];
+	    else if (argv[i].equals("-baseline")) baseline=argv[++i];
+	    else if (argv[i].equals("-quick")) quick=true;
+	    else {
+		System.err.println("Unknown argument: "+argv[i]);
+		System.exit(1);
+	    }
+	}
+
+	ArrayList benches=new ArrayList();
+	benches.addAll(PhysicsSuite.benches());
+	benches.addAll(CollisionSuite.benches());
+	benches.addAll(RenderSuite.benches());
+	benches.addAll(SpriteStoreSuite.benches());
+	benches.addAll(CheckpointSuite.benches());
+
+	HashMap base= baseline!=null ? load(baseline) : new HashMap();
+	PrintWriter out= save!=null ? new PrintWriter(new FileWriter(save)) : null;
+
+	for (int i=0; i<benches.size(); i++) {
+	    Bench b=(Bench)benches.get(i);
+	    if (only!=null && !b.getName().matches(".*("+only+").*")) continue;
+	    Bench.Result r= quick ? b.run(300, 2, 300) : b.run();
+	    String line=r.toString();
+	    Double before=(Double)base.get(b.getName());
+	    if (before!=null) {
+		line+=String.format("  %+.1f%% vs baseline", 100*(r.getNanosPerOp()-before.doubleValue())/before.doubleValue());
+	    }
+	    System.out.println(line);
+	    if (out!=null) {
+		out.println(b.getName()+"\t"+r.getNanosPerOp()+"\t"+r.getBytesPerOp());
+		out.flush();
+	    }
+	}
+	if (out!=null) out.close();
+    }
+
+    /** Read a saved baseline: name, tab, ns/op, tab, B/op per line */
+    private static HashMap load(String file) throws IOException {
+	HashMap base=new HashMap();
+	BufferedReader in=new BufferedReader(new FileReader(file));
+	String line;
+	while ((line=in.readLine())!=null) {
+	    String[] f=line.split("\t");
+	    if (f.length>=2) base.put(f[0], Double.valueOf(f[1]));
+	}
+	in.close();
+	return base;
+    }
+}
@@ -0,0 +1,80 @@
+package org.phonybone.sprites;
+import java.util.Random;
+
+/**
+ * Many slow bodies circling a heavy centre, plus a few tight binaries,
+ * integrated for the same stretch of simulated time by a plain
+ * leapfrog at the small step the binaries need, and by the block
+ * timestep integrator with a step 2^levels times larger that only the
+ * slow bodies take. Reports wall time, body force computations, energy
+ * drift and how far the binaries' separations (which should stay
+ * constant) have wandered.
+ * <p>
+ * Usage: BlockTimestepBench [bodies] [binaries] [simulated_seconds]
+ */
+public class BlockTimestepBench {
+    static final double SEPARATION=4;
+
+    public static void main(String argv[]) {
+	int n= argv.length>0 ? Integer.parseInt(argv[0]) : 1000;
+	int binaries= argv.length>1 ? Integer.parseInt(argv[1]) : 4;
+	double seconds= argv.length>2 ? Double.parseDouble(argv[2]) : 2;
+
+	long fineDt=1;		// ms: what the binaries need
+	int levels=7;
+	long coarseDt=fineDt<<levels;
+
+	// a whole number of coarse steps, so both end at the same moment
+	long millis=Math.max(1, (long)(seconds*1000/coarseDt))*coarseDt;
+	run("leapfrog", new LeapfrogIntegrator(), n, binaries, millis, fineDt);
+	run("block", new BlockTimestepIntegrator(0.02, levels), n, binaries, millis, coarseDt);
+    }
+
+    private static void run(String label, Integrator integrator, int n, int binaries, long millis, long dt) {
+	BodyStore bodies=system(n, binaries, 1);
+	SimulationRunner runner=new SimulationRunner(bodies, new PairwiseForceEngine(), integrator, dt);
+	long steps=millis/dt;
+	runner.setEnergyCheck((int)Math.max(1, steps/20));
+	long t0=System.nanoTime();
+	runner.run(steps);
+	double ms=(System.nanoTime()-t0)/1e6;
+	double forces= integrator instanceof BlockTimestepIntegrator
+	    ? ((BlockTimestepIntegrator)integrator).getForcesPerStep()*steps
+	    : (double)steps*bodies.size();
+	double sepError=0;
+	for (int k=0; k<binaries; k++) {
+	    int a=1+2*k, b=a+1;
+	    double dx=bodies.getX(a)-bodies.getX(b), dy=bodies.getY(a)-bodies.getY(b);
+	    sepError+=Math.abs(Math.sqrt(dx*dx+dy*dy)-SEPARATION)/SEPARATION;
+	}
+	System.out.printf("%-9s dt=%4dms %6d steps %10.0f body forces %9.1f ms  drift %.3e  binary separation error %.3e%n",
+			  label, dt, steps, forces, ms, runner.getEnergyDrift(), binaries==0 ? 0 : sepError/binaries);
+    }
+
+    // a central mass, n-1-2*binaries bodies on circular orbits, and
+    // binaries of two bodies 4px apart, themselves orbiting the centre
+    static BodyStore system(int n, int binaries, long seed) {
+	Random r=new Random(seed);
+	BodyStore bodies=new BodyStore(n);
+	double G=BodyStore.G;
+	double big=1e8;
+	bodies.add(0, 0, 0, 0, big);
+	for (int k=0; k<binaries; k++) {
+	    double radius=20000+r.nextDouble()*20000, angle=r.nextDouble()*2*Math.PI;
+	    double m=1e6, sep=SEPARATION;
+	    double cx=radius*Math.cos(angle), cy=radius*Math.sin(angle);
+	    double v=Math.sqrt(G*big/radius);
+	    double cvx=-v*Math.sin(angle), cvy=v*Math.cos(angle);
+	    // each partner circles the pair's centre at half the separation
+	    double w=Math.sqrt(G*m/(2*sep));
+	    bodies.add(cx+sep/2, cy, cvx, cvy+w, m);
+	    bodies.add(cx-sep/2, cy, cvx, cvy-w, m);
+	}
+	while (bodies.size()<n) {
+	    double radius=20000+r.nextDouble()*20000, angle=r.nextDouble()*2*Math.PI;
+	    double v=Math.sqrt(G*big/radius);
+	    bodies.add(radius*Math.cos(angle), radius*Math.sin(angle), -v*Math.sin(angle), v*Math.cos(angle), 1);
+	}
+	return bodies;
+    }
+}
@@ -0,0 +1,111 @@
+package org.phonybone.sprites;
+import java.awt.Graphics;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Times the collision broad phases over a field of shot- and
+ * alien-sized boxes drifting about, after checking on a small field
+ * that each finds exactly the pairs a brute force check does.
+ * <p>
+ * Usage: BroadPhaseBench [n_entities]
+ */
+public class BroadPhaseBench {
+
+    /** A bare box, so the benchmark doesn't need sprites or a display */
+    static class Box extends Entity {
+	private int w, h;
+
+	Box(int x, int y, int w, int h, double dx, double dy) {
+	    super(x, y);
+	    this.w=w;
+	    this.h=h;
+	    this.dx=dx;
+	    this.dy=dy;
+	}
+
+	public void move(long delta) {
+	    x+=(delta*dx)/1000;
+	    y+=(delta*dy)/1000;
+	}
+	public void draw(Graphics g) {
+	}
+	public int getWidth() {
+	    return w;
+	}
+	public int getHeight() {
+	    return h;
+	}
+	public boolean collidesWith(Entity other) {
+	    return true;
+	}
+	public void collidedWith(Entity other) {
+	}
+    }
+
+    static ArrayList field(int n, int size, long seed) {
+	Random r=new Random(seed);
+	ArrayList boxes=new ArrayList(n);
+	for (int i=0; i<n; i++) {
+	    // half shots (12x24), half aliens (48x32)
+	    boolean shot=(i&1)==0;
+	    boxes.add(new Box(r.nextInt(size), r.nextInt(size), shot ? 12 : 48, shot ? 24 : 32,
+			      r.nextGaussian()*100, r.nextGaussian()*100));
+	}
+	return boxes;
+    }
+
+    static class Counter implements CollisionHandler {
+	long pairs;
+	public void collision(Entity a, Entity b) {
+	    pairs++;
+	}
+    }
+
+    static long bruteForce(ArrayList boxes) {
+	long pairs=0;
+	java.awt.Rectangle me=new java.awt.Rectangle(), him=new java.awt.Rectangle();
+	for (int i=0; i<boxes.size(); i++) {
+	    Entity a=(Entity)boxes.get(i);
+	    me.setBounds(a.getX(), a.getY(), a.getWidth(), a.getHeight());
+	    for (int j=i+1; j<boxes.size(); j++) {
+		Entity b=(Entity)boxes.get(j);
+		him.setBounds(b.getX(), b.getY(), b.getWidth(), b.getHeight());
+		if (me.intersects(him)) pairs++;
+	    }
+	}
+	return pairs;
+    }
+
+    public static void main(String argv[]) {
+	int n= argv.length>0 ? Integer.parseInt(argv[0]) : 20000;
+
+	BroadPhase[] phases={new SpatialHashBroadPhase(32), new SweepAndPruneBroadPhase()};
+
+	// correctness on a small, crowded field
+	ArrayList small=field(2000, 1000, 2);
+	long expect=bruteForce(small);
+	for (int k=0; k<phases.length; k++) {
+	    Counter c=new Counter();
+	    phases[k].findPairs(small, c);
+	    System.out.println(phases[k].getName()+": "+c.pairs+" pairs, brute force "+expect
+			       +(c.pairs==expect ? "" : "  ** MISMATCH **"));
+	    if (c.pairs!=expect) System.exit(1);
+	}
+
+	// throughput: a 60fps frame moves everything 16ms, then finds pairs
+	for (int k=0; k<phases.length; k++) {
+	    final BroadPhase phase=phases[k];
+	    final ArrayList boxes=field(n, (int)(40*Math.sqrt(n)), 1);
+	    final Counter c=new Counter();
+	    Bench b=new Bench(phase.getName()+" n="+n, n, "entities") {
+		    public void op() {
+			for (int i=0; i<boxes.size(); i++) ((Entity)boxes.get(i)).move(16);
+			phase.findPairs(boxes, c);
+		    }
+		};
+	    Bench.Result r=b.run(2000, 5, 1000);
+	    System.out.println(r+String.format("  %.0f frames/s", 1e9/r.getNanosPerOp()));
+	}
+    }
+}
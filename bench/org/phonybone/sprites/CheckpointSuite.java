@@ -0,0 +1,96 @@
+package org.phonybone.sprites;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Checkpoint benchmarks: writing and reading a million-body BodyStore
+ * through a memory-mapped file in the temp directory.
+ * <p>
+ * The trajectory bench records a step of 10k bodies per op through a
+ * TrajectoryRecorder writing to nowhere; it runs at the pace of the
+ * slower of the copy and the background compression.
+ */
+public class CheckpointSuite {
+    static final int N=1000000;
+    static final int TRACKED=10000;
+
+    public static ArrayList benches() {
+	final BodyStore store=new BodyStore(N);
+	Random r=new Random(1);
+	for (int i=0; i<N; i++) {
+	    store.add(r.nextDouble()*100000, r.nextDouble()*100000, r.nextGaussian(), r.nextGaussian(), 1+r.nextDouble()*99);
+	}
+	final BodyStore into=new BodyStore(N);
+	final File file=tempFile();
+
+	ArrayList benches=new ArrayList();
+	benches.add(new Bench("checkpoint.write n="+N, N, "bodies") {
+		public void op() {
+		    try {
+			Checkpoint.write(file, store, 0, 10);
+		    } catch (IOException e) {
+			throw new RuntimeException(e);
+		    }
+		    sink+=file.length();
+		}
+	    });
+	benches.add(new Bench("checkpoint.read n="+N, N, "bodies") {
+		public void setup() {
+		    try {
+			Checkpoint.write(file, store, 0, 10);
+		    } catch (IOException e) {
+			throw new RuntimeException(e);
+		    }
+		}
+		public void op() {
+		    try {
+			Checkpoint.read(file, into);
+		    } catch (IOException e) {
+			throw new RuntimeException(e);
+		    }
+		    sink+=into.getX(N-1);
+		}
+	    });
+	final BodyStore moving=new BodyStore(TRACKED);
+	for (int i=0; i<TRACKED; i++) {
+	    moving.add(r.nextDouble()*100000, r.nextDouble()*100000, r.nextGaussian(), r.nextGaussian(), 1);
+	}
+	benches.add(new Bench("trajectory.record n="+TRACKED, TRACKED, "bodies") {
+		TrajectoryRecorder recorder;
+		long step;
+		public void setup() {
+		    try {
+			recorder=new TrajectoryRecorder(new OutputStream() {
+				public void write(int b) {}
+				public void write(byte[] b, int off, int len) {}
+			    }, TrajectoryRecorder.CHUNK_BYTES, 4);
+		    } catch (IOException e) {
+			throw new RuntimeException(e);
+		    }
+		}
+		public void op() {
+		    // drift a little, as a step would
+		    for (int i=0; i<TRACKED; i++) {
+			moving.x[i]+=moving.vx[i]*0.01;
+			moving.y[i]+=moving.vy[i]*0.01;
+		    }
+		    recorder.render(moving, ++step);
+		    sink+=recorder.getStepsRecorded();
+		}
+	    });
+	return benches;
+    }
+
+    private static File tempFile() {
+	try {
+	    File file=File.createTempFile("sprites", ".ck");
+	    file.deleteOnExit();
+	    return file;
+	} catch (IOException e) {
+	    throw new RuntimeException(e);
+	}
+    }
+}
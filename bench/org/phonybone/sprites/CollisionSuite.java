@@ -0,0 +1,56 @@
+package org.phonybone.sprites;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Collision benchmarks: an all-pairs SpriteEntity.collidesWith sweep
+ * over shots and aliens (what a naive game loop does), and the broad
+ * phases over the same field.
+ */
+public class CollisionSuite {
+    static final int N=2000;
+
+    public static ArrayList benches() {
+	final ArrayList sprites=new ArrayList(N);
+	Random r=new Random(1);
+	for (int i=0; i<N; i++) {
+	    if ((i&1)==0) {
+		sprites.add(new ShotEntity(null, "sprites/shot.gif", r.nextInt(2000), r.nextInt(2000)));
+	    } else {
+		sprites.add(new AlienEntity(null, "sprites/alien.gif", r.nextInt(2000), r.nextInt(2000)));
+	    }
+	}
+
+	ArrayList benches=new ArrayList();
+	benches.add(new Bench("collision.collidesWith sweep n="+N, (long)N*(N-1)/2, "checks") {
+		public void op() {
+		    int hits=0;
+		    for (int i=0; i<N; i++) {
+			Entity a=(Entity)sprites.get(i);
+			for (int j=i+1; j<N; j++) {
+			    if (a.collidesWith((Entity)sprites.get(j))) hits++;
+			}
+		    }
+		    sink+=hits;
+		}
+	    });
+
+	BroadPhase[] phases={new SpatialHashBroadPhase(32), new SweepAndPruneBroadPhase()};
+	for (int k=0; k<phases.length; k++) {
+	    final BroadPhase phase=phases[k];
+	    final int[] hits=new int[1];
+	    final CollisionHandler handler=new CollisionHandler() {
+		    public void collision(Entity a, Entity b) {
+			if (a.collidesWith(b)) hits[0]++;
+		    }
+		};
+	    benches.add(new Bench("collision."+phase.getName()+" n="+N, N, "entities") {
+		    public void op() {
+			phase.findPairs(sprites, handler);
+			sink+=hits[0];
+		    }
+		});
+	}
+	return benches;
+    }
+}
@@ -0,0 +1,86 @@
+package org.phonybone.sprites;
+import java.awt.Graphics;
+
+/**
+ * Sustained fire: every frame a handful of pooled shots are spawned,
+ * everything moves, and shots that leave the field are removed, all
+ * through EntityManager. Once the pool and lists have grown to their
+ * working size a frame should allocate nothing.
+ * <p>
+ * Usage: EntityLifecycleBench [shots_per_frame] [frames_alive]
+ */
+public class EntityLifecycleBench {
+
+    /** A shot without a sprite, which removes itself after a while */
+    static class Shot extends Entity {
+	EntityManager manager;
+	int life;
+
+	Shot(EntityManager manager) {
+	    super(0, 0);
+	    this.manager=manager;
+	}
+
+	void reset(int x, int life) {
+	    this.x=x;
+	    this.y=600;
+	    this.dy=-300;
+	    this.life=life;
+	}
+
+	public void move(long delta) {
+	    y+=(delta*dy)/1000;
+	    if (--life==0) manager.removeEntity(this);
+	}
+	public void draw(Graphics g) {
+	}
+	public int getWidth() {
+	    return 4;
+	}
+	public int getHeight() {
+	    return 8;
+	}
+	public boolean collidesWith(Entity other) {
+	    return false;
+	}
+	public void collidedWith(Entity other) {
+	}
+    }
+
+    public static void main(String argv[]) {
+	final int perFrame= argv.length>0 ? Integer.parseInt(argv[0]) : 100;
+	final int alive= argv.length>1 ? Integer.parseInt(argv[1]) : 120;
+
+	final EntityManager manager=new EntityManager();
+	final EntityPool pool=new EntityPool() {
+		protected Entity create() {
+		    return new Shot(manager);
+		}
+	    };
+	final int[] frame=new int[1];
+
+	Bench b=new Bench("lifecycle "+perFrame+" shots/frame, "+alive+" frames each", perFrame, "spawns") {
+		public void op() {
+		    for (int i=0; i<perFrame; i++) {
+			Shot s=(Shot)pool.obtain();
+			s.reset((frame[0]*7+i*13)%800, alive);
+			manager.addEntity(s);
+		    }
+		    for (int i=0; i<manager.size(); i++) {
+			((Entity)manager.getEntities().get(i)).move(16);
+		    }
+		    manager.applyChanges();
+		    frame[0]++;
+		    sink+=manager.size();
+		}
+	    };
+	Bench.Result r=b.run();
+	System.out.println(r);
+	System.out.println("live entities "+manager.size()+", pool created "+pool.getCreatedCount()
+			   +", free "+pool.getFreeCount());
+	if (r.getBytesPerOp()>0) {
+	    System.out.println("  ** allocates in steady state **");
+	    System.exit(1);
+	}
+    }
+}
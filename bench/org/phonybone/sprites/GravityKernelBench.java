@@ -0,0 +1,66 @@
+package org.phonybone.sprites;
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Compares the original object path (PlanetEntity.sumForces2d, which
+ * allocates a double[2] and calls atan/cos/sin per pair) with the
+ * GravityKernel over BodyStore columns. Reports pairs/second and bytes
+ * allocated per op; the kernel must come out at 0 B/op.
+ * <p>
+ * Usage: GravityKernelBench [n_bodies]
+ */
+public class GravityKernelBench {
+
+    public static void main(String argv[]) {
+	int n= argv.length>0 ? Integer.parseInt(argv[0]) : 1000;
+	long pairs=(long)n*(n-1)/2;
+
+	final BodyStore store=new BodyStore(n);
+	final ArrayList planets=new ArrayList(n);
+	Random r=new Random(1);
+	for (int i=0; i<n; i++) {
+	    planets.add(new PlanetEntity(null, store, "p"+i, r.nextInt(100000), r.nextInt(100000),
+					 0, 0, 1+r.nextDouble()*99, Color.white));
+	}
+
+	Bench legacy=new Bench("gForce2d n="+n, pairs, "pairs") {
+		public void op() {
+		    PlanetEntity.sumForces2d(planets);
+		    sink+=store.getForceX(0);
+		}
+	    };
+	Bench kernel=new Bench("GravityKernel.sumForces n="+n, pairs, "pairs") {
+		public void op() {
+		    store.sumForces2d();
+		    sink+=store.getForceX(0);
+		}
+	    };
+	Bench pair=new Bench("GravityKernel.pair n="+n, pairs, "pairs") {
+		public void op() {
+		    int n=store.size();
+		    store.clearForces();
+		    for (int i=0; i<n; i++) {
+			for (int j=0; j<i; j++) {
+			    GravityKernel.pair(store.x, store.y, store.mass, store.fx, store.fy, i, j);
+			}
+		    }
+		    sink+=store.getForceX(0);
+		}
+	    };
+
+	Bench.Result base=legacy.run();
+	System.out.println(base);
+	Bench.Result[] results={kernel.run(), pair.run()};
+	boolean ok=true;
+	for (int i=0; i<results.length; i++) {
+	    System.out.println(results[i]+String.format("  x%.1f", results[i].getUnitsPerSecond()/base.getUnitsPerSecond()));
+	    if (results[i].getBytesPerOp()>0) {
+		System.out.println("  ** allocates **");
+		ok=false;
+	    }
+	}
+	if (!ok) System.exit(1);
+    }
+}
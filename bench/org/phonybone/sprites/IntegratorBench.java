@@ -0,0 +1,37 @@
+package org.phonybone.sprites;
+
+/**
+ * Integrates the sun/earth/moon system from PlanetEntity.init_planets
+ * over the same stretch of simulated time with each integrator at a
+ * range of timesteps, and reports the energy drift and the cost. A
+ * symplectic integrator should match Euler's energy error at a much
+ * larger step.
+ * <p>
+ * Usage: IntegratorBench [simulated_seconds] [base_dt_ms]
+ */
+public class IntegratorBench {
+
+    public static void main(String argv[]) {
+	double seconds= argv.length>0 ? Double.parseDouble(argv[0]) : 600;
+	long baseDt= argv.length>1 ? Long.parseLong(argv[1]) : 1;
+
+	String[] names={"euler", "leapfrog", "rk4"};
+	long[] multipliers={1, 10, 50, 200};
+	for (int k=0; k<names.length; k++) {
+	    for (int j=0; j<multipliers.length; j++) {
+		long dt=baseDt*multipliers[j];
+		BodyStore bodies=new BodyStore();
+		PlanetEntity.init_planets(null, bodies);
+		Integrator integrator=SimulationRunner.integratorForName(names[k]);
+		SimulationRunner runner=new SimulationRunner(bodies, new PairwiseForceEngine(), integrator, dt);
+		long steps=(long)(seconds*1000/dt);
+		runner.setEnergyCheck((int)Math.max(1, steps/1000));
+		runner.run(steps);
+		System.out.printf("%-9s dt=%5dms %9d steps %6d force evals  drift %.3e (max %.3e, %.3e/step)  %.1f steps/s%n",
+				  names[k], dt, steps, steps*integrator.getForceEvaluations(),
+				  runner.getEnergyDrift(), runner.getMaxEnergyDrift(),
+				  runner.getEnergyDriftPerStep(), runner.getStepsPerSecond());
+	    }
+	}
+    }
+}
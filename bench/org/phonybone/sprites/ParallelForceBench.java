@@ -0,0 +1,54 @@
+package org.phonybone.sprites;
+
+/**
+ * Measures how ParallelForceEngine scales from 1 to N threads, and
+ * checks that repeated runs at each thread count give bit-identical
+ * forces.
+ * <p>
+ * Usage: ParallelForceBench [n_bodies] [max_threads]
+ */
+public class ParallelForceBench {
+
+    public static void main(String argv[]) {
+	int n= argv.length>0 ? Integer.parseInt(argv[0]) : 20000;
+	int maxThreads= argv.length>1 ? Integer.parseInt(argv[1]) : Runtime.getRuntime().availableProcessors();
+	long pairs=(long)n*(n-1)/2;
+
+	final BodyStore bodies=ForceError.randomBodies(n, 100000, 1);
+	bodies.sumForces2d();
+	double[] exact=new double[n];
+	for (int i=0; i<n; i++) exact[i]=bodies.getForceX(i);
+
+	double base=0;
+	boolean ok=true;
+	for (int t=1; t<=maxThreads; t++) {
+	    final ParallelForceEngine engine=new ParallelForceEngine(t);
+
+	    // determinism: two runs must agree bit for bit
+	    engine.sumForces(bodies);
+	    double[] first=new double[n];
+	    for (int i=0; i<n; i++) first[i]=bodies.getForceX(i);
+	    engine.sumForces(bodies);
+	    int mismatches=0;
+	    double maxRel=0;
+	    for (int i=0; i<n; i++) {
+		if (Double.doubleToLongBits(first[i])!=Double.doubleToLongBits(bodies.getForceX(i))) mismatches++;
+		if (exact[i]!=0) maxRel=Math.max(maxRel, Math.abs(first[i]-exact[i])/Math.abs(exact[i]));
+	    }
+
+	    Bench b=new Bench(engine.getName()+" n="+n, pairs, "pairs") {
+		    public void op() {
+			engine.sumForces(bodies);
+			sink+=bodies.getForceX(0);
+		    }
+		};
+	    Bench.Result r=b.run(1000, 3, 1000);
+	    if (t==1) base=r.getUnitsPerSecond();
+	    System.out.println(r+String.format("  speedup %.2f  vs-serial %.1e  %s", r.getUnitsPerSecond()/base, maxRel,
+					       mismatches==0 ? "deterministic" : mismatches+" NONDETERMINISTIC"));
+	    if (mismatches!=0) ok=false;
+	    engine.shutdown();
+	}
+	if (!ok) System.exit(1);
+    }
+}
@@ -0,0 +1,50 @@
+package org.phonybone.sprites;
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Force pass benchmarks: the original PlanetEntity.sumForces2d object
+ * path at 10, 1k and 10k bodies, and the BodyStore engines (pairwise,
+ * Barnes-Hut, parallel, FMM and P3M) at the same sizes for comparison.
+ */
+public class PhysicsSuite {
+    static final int[] SIZES={10, 1000, 10000};
+
+    public static ArrayList benches() {
+	ArrayList benches=new ArrayList();
+	for (int k=0; k<SIZES.length; k++) {
+	    final int n=SIZES[k];
+	    final long pairs=(long)n*(n-1)/2;
+	    final BodyStore store=new BodyStore(n);
+	    final ArrayList planets=new ArrayList(n);
+	    Random r=new Random(1);
+	    for (int i=0; i<n; i++) {
+		planets.add(new PlanetEntity(null, store, "p"+i, r.nextInt(100000), r.nextInt(100000),
+					     0, 0, 1+r.nextDouble()*99, Color.white));
+	    }
+
+	    benches.add(new Bench("physics.sumForces2d n="+n, pairs, "pairs") {
+		    public void op() {
+			PlanetEntity.sumForces2d(planets);
+			sink+=store.getForceX(0);
+		    }
+		});
+	    benches.add(engineBench(new PairwiseForceEngine(), store, pairs));
+	    benches.add(engineBench(new BarnesHutForceEngine(0.5), store, pairs));
+	    benches.add(engineBench(new ParallelForceEngine(), store, pairs));
+	    benches.add(engineBench(new FmmForceEngine(), store, pairs));
+	    benches.add(engineBench(new PmForceEngine(128, 1), store, pairs));
+	}
+	return benches;
+    }
+
+    private static Bench engineBench(final ForceEngine engine, final BodyStore store, long pairs) {
+	return new Bench("physics."+engine.getName()+" n="+store.size(), pairs, "pairs") {
+		public void op() {
+		    engine.sumForces(store);
+		    sink+=store.getForceX(0);
+		}
+	    };
+    }
+}
@@ -0,0 +1,200 @@
+package org.phonybone.sprites;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Drawing benchmarks: Sprite.draw into an offscreen 800x600 image,
+ * the same size as the game's canvas.
+ * <p>
+ * The 50k pair draws a frame of many distinct small images two ways:
+ * each sprite from its own image, and the same sprites packed into a
+ * SpriteAtlas and drawn through a SpriteBatch.
+ * <p>
+ * The map bench pans an 800x600 camera steadily across a 100k x 100k
+ * TileMap, drawing a frame per op.
+ * <p>
+ * The full/dirty pair draws frames of a few moving sprites over the
+ * map background: repainting the whole screen, and repainting only
+ * the DirtyRegion from a RetainedLayer.
+ * <p>
+ * The trails bench moves 10k bodies round circular orbits and
+ * updates and draws their OrbitTrails, 64 points each, per frame.
+ */
+public class RenderSuite {
+    static final int DRAWS=1000;
+    static final int MANY=50000;
+    /** Distinct images in the 50k frame, as if every entity type had its own */
+    static final int KINDS=64;
+    /** Sprites moving in the full vs dirty frame benches */
+    static final int MOVERS=20;
+    /** Bodies in the trails bench */
+    static final int ORBITS=10000;
+
+    public static ArrayList benches() {
+	final BufferedImage screen=new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+	final Graphics2D g=screen.createGraphics();
+	final Sprite[] sprites={
+	    SpriteStore.get().getSprite("sprites/shot.gif"),
+	    SpriteStore.get().getSprite("sprites/alien.gif"),
+	    SpriteStore.get().getSprite("sprites/ship.gif")};
+	final int[] xs=new int[DRAWS], ys=new int[DRAWS];
+	Random r=new Random(1);
+	for (int i=0; i<DRAWS; i++) {
+	    xs[i]=r.nextInt(800);
+	    ys[i]=r.nextInt(600);
+	}
+
+	// KINDS separate copies of the game's images, and a packed set of the same
+	final Sprite[] loose=new Sprite[KINDS], packed=new Sprite[KINDS];
+	SpriteAtlas atlas=new SpriteAtlas(1024);
+	for (int k=0; k<KINDS; k++) {
+	    loose[k]=new Sprite(copy(sprites[k%sprites.length]));
+	    packed[k]=new Sprite(copy(sprites[k%sprites.length]));
+	    atlas.pack(packed[k]);
+	}
+	final int[] mx=new int[MANY], my=new int[MANY], kind=new int[MANY];
+	for (int i=0; i<MANY; i++) {
+	    mx[i]=r.nextInt(800);
+	    my[i]=r.nextInt(600);
+	    kind[i]=r.nextInt(KINDS);
+	}
+	final SpriteBatch batch=new SpriteBatch();
+
+	ArrayList benches=new ArrayList();
+	benches.add(new Bench("render.Sprite.draw x"+DRAWS, DRAWS, "sprites") {
+		public void op() {
+		    for (int i=0; i<DRAWS; i++) {
+			sprites[i%sprites.length].draw(g, xs[i], ys[i]);
+		    }
+		    sink+=screen.getRGB(0, 0);
+		}
+	    });
+	benches.add(new Bench("render.clear 800x600", 800*600, "pixels") {
+		public void op() {
+		    g.setColor(java.awt.Color.black);
+		    g.fillRect(0, 0, 800, 600);
+		    sink+=screen.getRGB(0, 0);
+		}
+	    });
+	benches.add(new Bench("render.direct x"+MANY, MANY, "sprites") {
+		public void op() {
+		    for (int i=0; i<MANY; i++) {
+			loose[kind[i]].draw(g, mx[i], my[i]);
+		    }
+		    sink+=screen.getRGB(0, 0);
+		}
+	    });
+	benches.add(new Bench("render.batched x"+MANY+" ("+atlas.getPageCount()+" pages)", MANY, "sprites") {
+		public void op() {
+		    for (int i=0; i<MANY; i++) {
+			batch.add(packed[kind[i]], mx[i], my[i]);
+		    }
+		    batch.flush(g);
+		    sink+=screen.getRGB(0, 0);
+		}
+	    });
+	final Camera camera=new Camera(800, 600, 100000, 100000);
+	final TileMap map=new TileMap(new StarfieldTileSource(1, 40), 100000, 100000, 256, 800, 600);
+	benches.add(new Bench("render.TileMap pan 100k^2", 1, "frames") {
+		double vx=13, vy=7;
+		public void op() {
+		    // bounce off the edges of the map
+		    if (camera.getX()+vx<0 || camera.getX()+800+vx>100000) vx=-vx;
+		    if (camera.getY()+vy<0 || camera.getY()+600+vy>100000) vy=-vy;
+		    camera.pan(vx, vy);
+		    map.draw(g, camera);
+		    sink+=screen.getRGB(0, 0);
+		}
+	    });
+	final RetainedLayer layer=new RetainedLayer(800, 600) {
+		protected void paint(Graphics2D lg) {
+		    map.draw(lg, new Camera(800, 600, 100000, 100000));
+		}
+	    };
+	layer.validate(null);
+	final int movers=MOVERS;
+	final int[] px=new int[movers], py=new int[movers];
+	final int[] oldX=new int[movers], oldY=new int[movers];
+	for (int i=0; i<movers; i++) {
+	    px[i]=r.nextInt(760);
+	    py[i]=r.nextInt(560);
+	}
+	final DirtyRegion dirty=new DirtyRegion(800, 600, 32, 2);
+	benches.add(new Bench("render.frame full, "+movers+" moving", 1, "frames") {
+		int t;
+		public void op() {
+		    t++;
+		    layer.draw(g, 0, 0, 800, 600);
+		    for (int i=0; i<movers; i++) {
+			sprites[i%sprites.length].draw(g, px[i]+(t+i)%40, py[i]);
+		    }
+		    sink+=screen.getRGB(0, 0);
+		}
+	    });
+	benches.add(new Bench("render.frame dirty, "+movers+" moving", 1, "frames") {
+		int t;
+		public void op() {
+		    t++;
+		    for (int i=0; i<movers; i++) {
+			Sprite s=sprites[i%sprites.length];
+			int x=px[i]+(t+i)%40;
+			dirty.add(oldX[i], oldY[i], s.getWidth(), s.getHeight());
+			dirty.add(x, py[i], s.getWidth(), s.getHeight());
+			oldX[i]=x;
+			oldY[i]=py[i];
+		    }
+		    int n=dirty.flip();
+		    for (int k=0; k<n; k++) {
+			int x=dirty.getX(k), y=dirty.getY(k), w=dirty.getWidth(k), h=dirty.getHeight(k);
+			g.setClip(x, y, w, h);
+			layer.draw(g, x, y, w, h);
+			for (int i=0; i<movers; i++) {
+			    Sprite s=sprites[i%sprites.length];
+			    if (dirty.intersects(k, oldX[i], oldY[i], s.getWidth(), s.getHeight())) {
+				s.draw(g, oldX[i], oldY[i]);
+			    }
+			}
+		    }
+		    g.setClip(null);
+		    sink+=screen.getRGB(0, 0);
+		}
+	    });
+	final BodyStore orbiting=new BodyStore(ORBITS);
+	final double[] radius=new double[ORBITS], phase=new double[ORBITS];
+	for (int i=0; i<ORBITS; i++) {
+	    radius[i]=20+r.nextDouble()*280;
+	    phase[i]=r.nextDouble()*2*Math.PI;
+	    orbiting.add(0, 0, 0, 0, 1);
+	}
+	final OrbitTrails trails=new OrbitTrails(64, 2, java.awt.Color.white);
+	benches.add(new Bench("render.trails x"+ORBITS, ORBITS, "trails") {
+		int t;
+		public void op() {
+		    t++;
+		    for (int i=0; i<ORBITS; i++) {
+			// inner orbits go round faster, as they would
+			double a=phase[i]+t*30/radius[i];
+			orbiting.x[i]=400+radius[i]*Math.cos(a);
+			orbiting.y[i]=300+radius[i]*Math.sin(a);
+		    }
+		    trails.update(orbiting);
+		    g.setColor(java.awt.Color.black);
+		    g.fillRect(0, 0, 800, 600);
+		    trails.draw(g, orbiting);
+		    sink+=screen.getRGB(0, 0)+trails.getPointCount();
+		}
+	    });
+	return benches;
+    }
+
+    // a private copy of a sprite's image, so each kind is a separate source image
+    private static BufferedImage copy(Sprite sprite) {
+	BufferedImage image=new BufferedImage(sprite.getWidth(), sprite.getHeight(), BufferedImage.TYPE_INT_ARGB);
+	Graphics2D ig=image.createGraphics();
+	sprite.draw(ig, 0, 0);
+	ig.dispose();
+	return image;
+    }
+}
@@ -0,0 +1,40 @@
+package org.phonybone.sprites;
+import java.util.ArrayList;
+
+/**
+ * SpriteStore.getSprite benchmarks: a cache hit, and a miss (which
+ * decodes the image and builds the accelerated copy), and a preload
+ * of the game's manifest on the background loader followed by a fetch
+ * of every sprite in it.
+ */
+public class SpriteStoreSuite {
+
+    public static ArrayList benches() {
+	final SpriteStore store=SpriteStore.get();
+	ArrayList benches=new ArrayList();
+	benches.add(new Bench("spritestore.getSprite hit", 1, "gets") {
+		public void setup() {
+		    store.getSprite("sprites/alien.gif");
+		}
+		public void op() {
+		    sink+=store.getSprite("sprites/alien.gif").getWidth();
+		}
+	    });
+	benches.add(new Bench("spritestore.getSprite miss", 1, "gets") {
+		public void op() {
+		    store.flush();
+		    sink+=store.getSprite("sprites/alien.gif").getWidth();
+		}
+	    });
+	benches.add(new Bench("spritestore.preload manifest", 3, "sprites") {
+		public void op() {
+		    store.flush();
+		    store.preload("sprites/manifest.txt");
+		    sink+=store.getSprite("sprites/alien.gif").getWidth();
+		    sink+=store.getSprite("sprites/ship.gif").getWidth();
+		    sink+=store.getSprite("sprites/shot.gif").getWidth();
+		}
+	    });
+	return benches;
+    }
+}
@@ -0,0 +1,36 @@
+package org.phonybone.sprites;
+
+/**
+ * Shared plumbing for the integrators: kick and drift passes that run
+ * on the ParallelForceEngine's pool when that engine is in use.
+ */
+public abstract class AbstractIntegrator implements Integrator {
+
+    public void start(BodyStore bodies, ForceEngine engine) {
+    }
+
+    protected static void kick(BodyStore bodies, ForceEngine engine, double dt) {
+	ParallelForceEngine parallel=parallel(engine);
+	if (parallel!=null) {
+	    parallel.kick(bodies, dt);
+	} else {
+	    bodies.kick(dt);
+	}
+    }
+
+    protected static void drift(BodyStore bodies, ForceEngine engine, double dt) {
+	ParallelForceEngine parallel=parallel(engine);
+	if (parallel!=null) {
+	    parallel.drift(bodies, dt);
+	} else {
+	    bodies.drift(dt);
+	}
+    }
+
+    // the parallel engine behind 'engine', if there is one
+    private static ParallelForceEngine parallel(ForceEngine engine) {
+	if (engine instanceof TimedForceEngine) engine=((TimedForceEngine)engine).getEngine();
+	if (engine instanceof ParallelForceEngine) return (ParallelForceEngine)engine;
+	return null;
+    }
+}
@@ -0,0 +1,294 @@
+package org.phonybone.sprites;
+
+/**
+ * Barnes-Hut force engine. The planets are sorted into a quadtree,
+ * each node of which records the total mass and center of mass of
+ * the planets beneath it. When computing the force on a planet, a
+ * node whose size s and distance d satisfy s/d < theta is treated as
+ * a single body at its center of mass; otherwise we open it and look
+ * at its children. This makes the force pass O(n log n).
+ * <p>
+ * theta=0 degenerates into the exact pairwise sum; 0.5 is the usual
+ * compromise; larger values are faster and less accurate. Use
+ * ForceError to pick a value for a given scene.
+ * <p>
+ * The store's Softening applies to the bodies summed one by one; a
+ * cell far enough away to be taken whole is well outside any sensible
+ * softening length.
+ * <p>
+ * The tree lives in flat arrays that are reused between calls, so
+ * a steady-state frame does not allocate.
+ */
+public class BarnesHutForceEngine implements PartialForceEngine {
+    /** Nodes below this depth keep coincident bodies in a list rather than splitting forever */
+    private static final int MAX_DEPTH=48;
+
+    private double theta;
+
+    // The columns of the store being worked on
+    private double[] bx, by, bm;
+    private Softening softening;
+    /** Next body in the same leaf, or -1 */
+    private int[] next=new int[0];
+
+    // The quadtree. Node 0 is the root; the four children of a node
+    // are allocated contiguously starting at firstChild[node].
+    private int nNodes;
+    private double[] cx=new double[0], cy=new double[0], half=new double[0];
+    private double[] mass=new double[0], comx=new double[0], comy=new double[0];
+    private int[] firstChild=new int[0];
+    /** First body in a leaf (chained through next[]), or -1 */
+    private int[] leafBody=new int[0];
+
+    private int[] stack=new int[4*(MAX_DEPTH+2)];
+
+    public BarnesHutForceEngine(double theta) {
+	setTheta(theta);
+    }
+
+    public double getTheta() {
+	return theta;
+    }
+
+    public void setTheta(double theta) {
+	if (theta < 0) throw new IllegalArgumentException("theta must be >= 0: "+theta);
+	this.theta=theta;
+    }
+
+    public String getName() {
+	return "barnes-hut(theta="+theta+")";
+    }
+
+    public void sumForces(BodyStore bodies) {
+	int n=bodies.size();
+	if (next.length<n) next=new int[n];
+	bx=bodies.x;
+	by=bodies.y;
+	bm=bodies.mass;
+	softening=bodies.getSoftening();
+
+	build(n);
+
+	double G=BodyStore.G;
+	double[] fx=bodies.fx, fy=bodies.fy;
+	for (int i=0; i<n; i++) {
+	    walk(i);
+	    fx[i]=-G*bm[i]*sumX;
+	    fy[i]=-G*bm[i]*sumY;
+	}
+    }
+
+    /**
+     * The tree is still built from every body, but only the active
+     * bodies walk it.
+     */
+    public void sumForces(BodyStore bodies, int[] active, int count) {
+	int n=bodies.size();
+	if (next.length<n) next=new int[n];
+	bx=bodies.x;
+	by=bodies.y;
+	bm=bodies.mass;
+	softening=bodies.getSoftening();
+
+	build(n);
+
+	double G=BodyStore.G;
+	double[] fx=bodies.fx, fy=bodies.fy;
+	for (int k=0; k<count; k++) {
+	    int i=active[k];
+	    walk(i);
+	    fx[i]=-G*bm[i]*sumX;
+	    fy[i]=-G*bm[i]*sumY;
+	}
+    }
+
+    /*
+     * Build the tree for the first n bodies in bx/by/bm.
+     */
+    private void build(int n) {
+	nNodes=0;
+	if (n==0) return;
+
+	// The root is the bounding square of all the bodies
+	double minx=bx[0], maxx=bx[0], miny=by[0], maxy=by[0];
+	for (int i=1; i<n; i++) {
+	    if (bx[i]<minx) minx=bx[i];
+	    if (bx[i]>maxx) maxx=bx[i];
+	    if (by[i]<miny) miny=by[i];
+	    if (by[i]>maxy) maxy=by[i];
+	}
+	double h=Math.max(maxx-minx, maxy-miny)/2;
+	if (h==0) h=1;
+	int root=allocNodes(1);
+	initNode(root, (minx+maxx)/2, (miny+maxy)/2, h*1.0001);
+
+	for (int i=0; i<n; i++) insert(i);
+
+	// Children always have larger indices than their parents, so
+	// one backwards sweep computes every node's mass and center of mass.
+	for (int node=nNodes-1; node>=0; node--) {
+	    double m=0, mx=0, my=0;
+	    int c=firstChild[node];
+	    if (c<0) {
+		for (int b=leafBody[node]; b>=0; b=next[b]) {
+		    m+=bm[b];
+		    mx+=bm[b]*bx[b];
+		    my+=bm[b]*by[b];
+		}
+	    } else {
+		for (int k=c; k<c+4; k++) {
+		    m+=mass[k];
+		    mx+=mass[k]*comx[k];
+		    my+=mass[k]*comy[k];
+		}
+	    }
+	    mass[node]=m;
+	    if (m!=0) {
+		comx[node]=mx/m;
+		comy[node]=my/m;
+	    } else {
+		comx[node]=cx[node];
+		comy[node]=cy[node];
+	    }
+	}
+    }
+
+    private void insert(int b) {
+	int node=0;
+	int depth=0;
+	while (true) {
+	    int c=firstChild[node];
+	    if (c>=0) {
+		node=c+quadrant(node, bx[b], by[b]);
+		depth++;
+	    } else if (leafBody[node]<0) {
+		leafBody[node]=b;
+		next[b]=-1;
+		return;
+	    } else if (depth>=MAX_DEPTH) {
+		next[b]=leafBody[node];
+		leafBody[node]=b;
+		return;
+	    } else {
+		split(node);
+	    }
+	}
+    }
+
+    // Give a leaf four children and push its bodies down into them
+    private void split(int node) {
+	int c=allocNodes(4);
+	double h=half[node]/2;
+	initNode(c,   cx[node]-h, cy[node]-h, h);
+	initNode(c+1, cx[node]+h, cy[node]-h, h);
+	initNode(c+2, cx[node]-h, cy[node]+h, h);
+	initNode(c+3, cx[node]+h, cy[node]+h, h);
+	firstChild[node]=c;
+
+	int b=leafBody[node];
+	leafBody[node]=-1;
+	while (b>=0) {
+	    int nb=next[b];
+	    int child=c+quadrant(node, bx[b], by[b]);
+	    next[b]=leafBody[child];
+	    leafBody[child]=b;
+	    b=nb;
+	}
+    }
+
+    private int quadrant(int node, double x, double y) {
+	int q=0;
+	if (x>=cx[node]) q|=1;
+	if (y>=cy[node]) q|=2;
+	return q;
+    }
+
+    private void initNode(int node, double x, double y, double h) {
+	cx[node]=x;
+	cy[node]=y;
+	half[node]=h;
+	firstChild[node]=-1;
+	leafBody[node]=-1;
+    }
+
+    /** Result of the last walk(): sum(m_j*(p_i-p_j)/r^3) over the tree */
+    private double sumX, sumY;
+
+    /*
+     * Walk the tree for body i, leaving the result in sumX/sumY.
+     */
+    private void walk(int i) {
+	double xi=bx[i], yi=by[i];
+	double theta2=theta*theta;
+	double sx=0, sy=0;
+	int sp=0;
+	stack[sp++]=0;
+	while (sp>0) {
+	    int node=stack[--sp];
+	    if (mass[node]==0) continue;
+	    int c=firstChild[node];
+	    if (c<0) {
+		for (int b=leafBody[node]; b>=0; b=next[b]) {
+		    if (b==i) continue;
+		    double ddx=xi-bx[b];
+		    double ddy=yi-by[b];
+		    double r2=ddx*ddx+ddy*ddy;
+		    if (r2==0) continue;
+		    double f=bm[b]*GravityKernel.inverseCube(r2, softening);
+		    sx+=f*ddx;
+		    sy+=f*ddy;
+		}
+		continue;
+	    }
+
+	    double ddx=xi-comx[node];
+	    double ddy=yi-comy[node];
+	    double r2=ddx*ddx+ddy*ddy;
+	    double s=2*half[node];
+	    // Never approximate a cell that contains the body itself
+	    boolean inside=Math.abs(xi-cx[node])<=half[node] && Math.abs(yi-cy[node])<=half[node];
+	    if (!inside && s*s<theta2*r2) {
+		double inv=1/Math.sqrt(r2);
+		double f=mass[node]*inv*inv*inv;
+		sx+=f*ddx;
+		sy+=f*ddy;
+	    } else {
+		stack[sp++]=c;
+		stack[sp++]=c+1;
+		stack[sp++]=c+2;
+		stack[sp++]=c+3;
+	    }
+	}
+	sumX=sx;
+	sumY=sy;
+    }
+
+    private int allocNodes(int k) {
+	int first=nNodes;
+	nNodes+=k;
+	if (nNodes>cx.length) {
+	    int cap=Math.max(nNodes, 2*cx.length);
+	    cx=grow(cx, cap);
+	    cy=grow(cy, cap);
+	    half=grow(half, cap);
+	    mass=grow(mass, cap);
+	    comx=grow(comx, cap);
+	    comy=grow(comy, cap);
+	    firstChild=grow(firstChild, cap);
+	    leafBody=grow(leafBody, cap);
+	}
+	return first;
+    }
+
+    private static double[] grow(double[] a, int cap) {
+	double[] b=new double[cap];
+	System.arraycopy(a, 0, b, 0, a.length);
+	return b;
+    }
+
+    private static int[] grow(int[] a, int cap) {
+	int[] b=new int[cap];
+	System.arraycopy(a, 0, b, 0, a.length);
+	return b;
+    }
+}
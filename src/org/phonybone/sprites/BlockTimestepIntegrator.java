@@ -0,0 +1,177 @@
+package org.phonybone.sprites;
+
+/**
+ * Leapfrog (kick-drift-kick) with a timestep per body. Each body
+ * steps by dt/2^k for a level k of its own, picked from how quickly
+ * its acceleration is changing (Aarseth's |a|/|jerk|), so a tight
+ * binary can take hundreds of small steps while the slow bodies
+ * around it take one.
+ * <p>
+ * The levels form a hierarchy of blocks: a step at level k always
+ * starts and ends on a multiple of dt/2^k, so bodies on the same level
+ * stay in step and the whole system is back in sync at the end of
+ * every dt. Within a step, every body drifts to the end of each
+ * sub-step, but forces are only computed for the bodies whose own step
+ * ends there: with a PartialForceEngine that is the whole saving.
+ * Other engines compute every body's force each sub-step.
+ * <p>
+ * A body may move to a shorter step at the end of any of its steps,
+ * and to the next longer one only where that longer step would start.
+ */
+public class BlockTimestepIntegrator extends AbstractIntegrator {
+    private double eta;
+    private int maxLevel;
+
+    private int[] level=new int[0];
+    /** When each body's current step ends, in ticks of dt/2^maxLevel */
+    private long[] end=new long[0];
+    /** Acceleration at each body's last force evaluation */
+    private double[] ax=new double[0], ay=new double[0];
+    /** The exact jerk from start(), until the first step picks levels from it */
+    private double[] jx0=new double[0], jy0=new double[0];
+    private int[] active=new int[0];
+
+    private long steps;
+    private long bodyForces;
+
+    public BlockTimestepIntegrator() {
+	this(0.02, 10);
+    }
+
+    /**
+     * @param eta Accuracy: a body's step is at most eta*|a|/|jerk|
+     * @param maxLevel The shortest step is dt/2^maxLevel
+     */
+    public BlockTimestepIntegrator(double eta, int maxLevel) {
+	if (maxLevel<0 || maxLevel>30) throw new IllegalArgumentException("maxLevel must be 0..30: "+maxLevel);
+	this.eta=eta;
+	this.maxLevel=maxLevel;
+    }
+
+    /**
+     * Compute the forces, and pick the first levels from the exact jerk
+     */
+    public void start(BodyStore bodies, ForceEngine engine) {
+	int n=bodies.size();
+	ensureCapacity(n);
+	engine.sumForces(bodies);
+	GravityKernel.jerk(bodies.x, bodies.y, bodies.vx, bodies.vy, bodies.mass, jx0, jy0, n, bodies.getSoftening());
+	for (int i=0; i<n; i++) {
+	    ax[i]=bodies.fx[i]/bodies.mass[i];
+	    ay[i]=bodies.fy[i]/bodies.mass[i];
+	    // no level yet: the first step picks one, knowing dt
+	    level[i]=-1;
+	}
+    }
+
+    public void step(BodyStore bodies, ForceEngine engine, double dt) {
+	int n=bodies.size();
+	long ticks=1L<<maxLevel;
+	double tick=dt/ticks;
+	double[] fx=bodies.fx, fy=bodies.fy, vx=bodies.vx, vy=bodies.vy, m=bodies.mass;
+
+	// everyone starts a step, with the first half kick
+	long t=0;
+	for (int i=0; i<n; i++) {
+	    if (level[i]<0) level[i]=pickLevel(i, jx0[i], jy0[i], 0, dt);
+	    open(bodies, i, t, tick);
+	}
+
+	while (t<ticks) {
+	    long next=ticks;
+	    for (int i=0; i<n; i++) {
+		if (end[i]<next) next=end[i];
+	    }
+	    drift(bodies, engine, (next-t)*tick);
+	    t=next;
+
+	    int count=0;
+	    for (int i=0; i<n; i++) {
+		if (end[i]==t) active[count++]=i;
+	    }
+	    if (engine instanceof PartialForceEngine) {
+		((PartialForceEngine)engine).sumForces(bodies, active, count);
+	    } else {
+		engine.sumForces(bodies);
+	    }
+	    bodyForces+=count;
+
+	    for (int k=0; k<count; k++) {
+		int i=active[k];
+		double h=(1L<<(maxLevel-level[i]))*tick;
+		// second half kick, then judge the next step on how
+		// much the acceleration changed over this one
+		double s=h/2/m[i];
+		vx[i]+=fx[i]*s;
+		vy[i]+=fy[i]*s;
+		double nax=fx[i]/m[i], nay=fy[i]/m[i];
+		double jx=(nax-ax[i])/h, jy=(nay-ay[i])/h;
+		ax[i]=nax;
+		ay[i]=nay;
+		level[i]=pickLevel(i, jx, jy, t, dt);
+		if (t<ticks) open(bodies, i, t, tick);
+	    }
+	}
+	steps++;
+    }
+
+    /**
+     * @return The number of times a body's force was computed, per step
+     *         on average; a plain leapfrog would have the body count
+     */
+    public double getForcesPerStep() {
+	return steps==0 ? 0 : (double)bodyForces/steps;
+    }
+
+    /**
+     * @return The level body i is on: it steps by dt/2^level
+     */
+    public int getLevel(int i) {
+	return level[i];
+    }
+
+    /** Each step ends with every body's force computed, at least once */
+    public int getForceEvaluations() {
+	return 1;
+    }
+
+    public String getName() {
+	return "block(eta="+eta+",levels="+maxLevel+")";
+    }
+
+    // start body i's next step at tick t: the first half kick
+    private void open(BodyStore bodies, int i, long t, double tick) {
+	long span=1L<<(maxLevel-level[i]);
+	double s=span*tick/2/bodies.mass[i];
+	bodies.vx[i]+=bodies.fx[i]*s;
+	bodies.vy[i]+=bodies.fy[i]*s;
+	end[i]=t+span;
+    }
+
+    // the level body i should take its next step on, starting at tick t
+    private int pickLevel(int i, double jx, double jy, long t, double dt) {
+	double a=Math.sqrt(ax[i]*ax[i]+ay[i]*ay[i]);
+	double j=Math.sqrt(jx*jx+jy*jy);
+	// wanted: the longest step no more than eta*|a|/|j|
+	double h= j==0 ? dt : eta*a/j;
+	int want=0;
+	while (want<maxLevel && dt/(1L<<want)>h) want++;
+
+	int current=level[i];
+	if (current<0 || want>=current) return want;
+	// longer steps only one level at a time, and where one would start
+	long span=1L<<(maxLevel-current+1);
+	return t%span==0 ? current-1 : current;
+    }
+
+    private void ensureCapacity(int n) {
+	if (level.length>=n) return;
+	level=new int[n];
+	end=new long[n];
+	ax=new double[n];
+	ay=new double[n];
+	jx0=new double[n];
+	jy0=new double[n];
+	active=new int[n];
+    }
+}
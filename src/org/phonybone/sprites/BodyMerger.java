@@ -0,0 +1,142 @@
+package org.phonybone.sprites;
+
+/**
+ * Merges bodies that come within a capture radius of each other, the
+ * way planets that hit would stick. The pair becomes one body at their
+ * center of mass, carrying their total mass and momentum, in the slot
+ * of the heavier (the lighter is removed from the store, and its
+ * PlanetEntity, if any, detached). Without this a close pass needs
+ * tiny steps to follow, and the pair goes on costing a force sum
+ * each step.
+ * <p>
+ * The bodies are put in a hash grid of cells one radius across, so
+ * only bodies in neighbouring cells are compared: O(n) for the whole
+ * pass. A merged body is binned where it was before the merge, so a
+ * pair it has only now come close to is merged on the next pass. The
+ * grid is kept between passes, so a pass with nothing to merge
+ * allocates nothing.
+ * <p>
+ * Merging changes the bodies under the integrator, so restart it (and
+ * any energy baseline) after a pass that merged anything; a
+ * SimulationRunner given a merger with setMerger() does so.
+ */
+public class BodyMerger {
+    private double radius, radius2;
+    private long merges;
+
+    // the grid: head[bucket] is the first body in it or -1, next[i] the
+    // body after i; cellX/Y say which cell a body is in, since several
+    // cells can share a bucket
+    private int[] head=new int[0];
+    private int[] next=new int[0];
+    private int[] cellX=new int[0], cellY=new int[0];
+    private boolean[] dead=new boolean[0];
+
+    /**
+     * @param radius Bodies closer than this are merged
+     */
+    public BodyMerger(double radius) {
+	if (radius<=0) throw new IllegalArgumentException("radius must be > 0: "+radius);
+	this.radius=radius;
+	this.radius2=radius*radius;
+    }
+
+    public double getRadius() {
+	return radius;
+    }
+
+    /** @return The number of bodies merged away so far */
+    public long getMerges() {
+	return merges;
+    }
+
+    /**
+     * Merge every pair of bodies within the radius of each other
+     *
+     * @return The number of bodies removed
+     */
+    public int merge(BodyStore bodies) {
+	int n=bodies.size();
+	if (n<2) return 0;
+	ensureCapacity(n);
+	int mask=head.length-1;
+	java.util.Arrays.fill(head, -1);
+	double[] x=bodies.x, y=bodies.y;
+	double inv=1/radius;
+	int removed=0;
+
+	// each body is compared with those before it in the cells around
+	// it, then added to its own cell
+	for (int i=0; i<n; i++) {
+	    dead[i]=false;
+	    int cx=(int)Math.floor(x[i]*inv), cy=(int)Math.floor(y[i]*inv);
+	    cellX[i]=cx;
+	    cellY[i]=cy;
+	    boolean alive=true;
+	    for (int ny=cy-1; ny<=cy+1 && alive; ny++) {
+		for (int nx=cx-1; nx<=cx+1 && alive; nx++) {
+		    for (int j=head[hash(nx, ny)&mask]; j>=0; j=next[j]) {
+			if (dead[j] || cellX[j]!=nx || cellY[j]!=ny) continue;
+			double ddx=x[i]-x[j], ddy=y[i]-y[j];
+			if (ddx*ddx+ddy*ddy>=radius2) continue;
+			removed++;
+			if (combine(bodies, i, j)) {
+			    alive=false;
+			    break;
+			}
+		    }
+		}
+	    }
+	    if (!alive) continue;
+	    int b=hash(cx, cy)&mask;
+	    next[i]=head[b];
+	    head[b]=i;
+	}
+	if (removed==0) return 0;
+
+	// from the top down, so the body swapped into each hole is live
+	for (int i=n-1; i>=0; i--) {
+	    if (dead[i]) bodies.remove(i);
+	}
+	merges+=removed;
+	return removed;
+    }
+
+    /*
+     * Merge bodies i and j into the heavier, marking the other dead
+     *
+     * @return True if i was the one absorbed
+     */
+    private boolean combine(BodyStore bodies, int i, int j) {
+	double[] x=bodies.x, y=bodies.y, vx=bodies.vx, vy=bodies.vy, m=bodies.mass;
+	int keep= m[i]>m[j] ? i : j;
+	int lose= keep==i ? j : i;
+	double mk=m[keep], ml=m[lose], mt=mk+ml;
+	x[keep]=(mk*x[keep]+ml*x[lose])/mt;
+	y[keep]=(mk*y[keep]+ml*y[lose])/mt;
+	vx[keep]=(mk*vx[keep]+ml*vx[lose])/mt;
+	vy[keep]=(mk*vy[keep]+ml*vy[lose])/mt;
+	m[keep]=mt;
+	bodies.fx[keep]+=bodies.fx[lose];
+	bodies.fy[keep]+=bodies.fy[lose];
+	dead[lose]=true;
+	return lose==i;
+    }
+
+    private static int hash(int cx, int cy) {
+	return (cx*73856093)^(cy*19349663);
+    }
+
+    private void ensureCapacity(int n) {
+	if (next.length<n) {
+	    int cap=Math.max(n, 2*next.length);
+	    next=new int[cap];
+	    cellX=new int[cap];
+	    cellY=new int[cap];
+	    dead=new boolean[cap];
+	}
+	// about two buckets per body
+	int buckets=Integer.highestOneBit(Math.max(2*n-1, 1))<<1;
+	if (head.length<buckets) head=new int[buckets];
+    }
+}
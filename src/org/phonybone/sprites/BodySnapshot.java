@@ -0,0 +1,79 @@
+package org.phonybone.sprites;
+
+/**
+ * A copy of the bodies after one simulation step, with their positions
+ * before the step too, so a display running between steps can draw
+ * them part way along. Filled in by a SnapshotExchange.
+ */
+public class BodySnapshot {
+    int size;
+    /** Positions before and after the step */
+    double[] x0=new double[0], y0=new double[0];
+    double[] x=new double[0], y=new double[0];
+    double[] vx=new double[0], vy=new double[0];
+    double[] mass=new double[0];
+    /** The number of the step, 0 before the first */
+    long step;
+    /** When the step was published (System.nanoTime) */
+    long nanos;
+    /** The simulated time one step covers, in ns */
+    long stepNanos;
+
+    public int size() {
+	return size;
+    }
+
+    public long getStep() {
+	return step;
+    }
+
+    /**
+     * Write the bodies as they'd be at time 'now' into a store, sliding
+     * each from its position before the step to after it as one step's
+     * time passes from the snapshot's publication. This shows the
+     * simulation up to one step late, but moving smoothly whatever the
+     * frame rate.
+     *
+     * @param into A store with the same bodies, e.g. the one the
+     *             PlanetEntity views are over
+     * @param now The time to draw for (System.nanoTime)
+     */
+    public void interpolate(BodyStore into, long now) {
+	double alpha= stepNanos<=0 ? 1 : (double)(now-nanos)/stepNanos;
+	if (alpha<0) alpha=0;
+	if (alpha>1) alpha=1;
+	int n=Math.min(size, into.size());
+	for (int i=0; i<n; i++) {
+	    into.x[i]=x0[i]+(x[i]-x0[i])*alpha;
+	    into.y[i]=y0[i]+(y[i]-y0[i])*alpha;
+	    into.vx[i]=vx[i];
+	    into.vy[i]=vy[i];
+	    into.mass[i]=mass[i];
+	}
+    }
+
+    // copy a store in as the state after the step; px,py are the positions before it
+    void capture(BodyStore bodies, double[] px, double[] py, long step, long stepNanos) {
+	int n=bodies.size();
+	if (x.length<n) {
+	    x0=new double[n];
+	    y0=new double[n];
+	    x=new double[n];
+	    y=new double[n];
+	    vx=new double[n];
+	    vy=new double[n];
+	    mass=new double[n];
+	}
+	System.arraycopy(px, 0, x0, 0, n);
+	System.arraycopy(py, 0, y0, 0, n);
+	System.arraycopy(bodies.x, 0, x, 0, n);
+	System.arraycopy(bodies.y, 0, y, 0, n);
+	System.arraycopy(bodies.vx, 0, vx, 0, n);
+	System.arraycopy(bodies.vy, 0, vy, 0, n);
+	System.arraycopy(bodies.mass, 0, mass, 0, n);
+	this.size=n;
+	this.step=step;
+	this.stepNanos=stepNanos;
+	this.nanos=System.nanoTime();
+    }
+}
@@ -0,0 +1,312 @@
+package org.phonybone.sprites;
+
+/**
+ * Structure-of-arrays storage for gravitating bodies. Rather than one
+ * heap object per planet, each property lives in its own primitive
+ * column and a body is just an index into all of them. PlanetEntity
+ * is a thin view over one index.
+ * <p>
+ * The force and move loops run straight down the arrays: no casts, no
+ * pointer chasing, and nothing allocated once the store has reached
+ * its working size.
+ * <p>
+ * The columns are package visible so the force engines can read them
+ * directly; only the first size() entries are meaningful.
+ * <p>
+ * A Softening, if set, applies to every force and energy sum over the
+ * store, whichever engine does it.
+ */
+public class BodyStore {
+    /** Gravitational constant, in our pixel/mass units */
+    public static final double G=6.67428e-2;
+
+    private int size;
+
+    /** Position (pixels) */
+    double[] x, y;
+    /** Velocity (pixels/sec) */
+    double[] vx, vy;
+    double[] mass;
+    /** Force acting on each body, filled in by a ForceEngine */
+    double[] fx, fy;
+    /** The PlanetEntity viewing each body, if any, kept up to date by remove() */
+    PlanetEntity[] views;
+
+    /** Null for plain 1/r^2 gravity */
+    private Softening softening;
+
+    public BodyStore() {
+	this(16);
+    }
+
+    public BodyStore(int capacity) {
+	capacity=Math.max(capacity, 1);
+	x=new double[capacity];
+	y=new double[capacity];
+	vx=new double[capacity];
+	vy=new double[capacity];
+	mass=new double[capacity];
+	fx=new double[capacity];
+	fy=new double[capacity];
+	views=new PlanetEntity[capacity];
+    }
+
+    /**
+     * Add a body to the store
+     *
+     * @return The index of the new body
+     */
+    public int add(double x, double y, double vx, double vy, double mass) {
+	if (size==this.x.length) ensureCapacity(2*size);
+	int i=size++;
+	this.x[i]=x;
+	this.y[i]=y;
+	this.vx[i]=vx;
+	this.vy[i]=vy;
+	this.mass[i]=mass;
+	fx[i]=0;
+	fy[i]=0;
+	views[i]=null;
+	return i;
+    }
+
+    /**
+     * Remove body i. The last body moves into its place (so indices
+     * above i are not preserved); a PlanetEntity on the removed body is
+     * detached and one on the moved body follows it to i.
+     */
+    public void remove(int i) {
+	if (i<0 || i>=size) throw new IndexOutOfBoundsException("body "+i+" of "+size);
+	if (views[i]!=null) views[i].detach();
+	int last=--size;
+	if (i!=last) {
+	    x[i]=x[last];
+	    y[i]=y[last];
+	    vx[i]=vx[last];
+	    vy[i]=vy[last];
+	    mass[i]=mass[last];
+	    fx[i]=fx[last];
+	    fy[i]=fy[last];
+	    views[i]=views[last];
+	    if (views[i]!=null) views[i].moveTo(i);
+	}
+	views[last]=null;
+    }
+
+    public int size() {
+	return size;
+    }
+
+    // set the number of bodies, e.g. before filling the columns in bulk
+    void resize(int n) {
+	ensureCapacity(n);
+	size=n;
+    }
+
+    /** Remove every body; the arrays are kept for reuse */
+    public void clear() {
+	for (int i=0; i<size; i++) {
+	    if (views[i]!=null) views[i].detach();
+	    views[i]=null;
+	}
+	size=0;
+    }
+
+    /**
+     * Soften gravity between the bodies, e.g. Softening.plummer(eps);
+     * null for plain Newtonian gravity
+     */
+    public void setSoftening(Softening softening) {
+	this.softening=softening;
+    }
+
+    public Softening getSoftening() {
+	return softening;
+    }
+
+    /**
+     * Make this store a copy of another's bodies and softening (but not
+     * its PlanetEntity views)
+     */
+    public void copyFrom(BodyStore other) {
+	ensureCapacity(other.size);
+	System.arraycopy(other.x, 0, x, 0, other.size);
+	System.arraycopy(other.y, 0, y, 0, other.size);
+	System.arraycopy(other.vx, 0, vx, 0, other.size);
+	System.arraycopy(other.vy, 0, vy, 0, other.size);
+	System.arraycopy(other.mass, 0, mass, 0, other.size);
+	System.arraycopy(other.fx, 0, fx, 0, other.size);
+	System.arraycopy(other.fy, 0, fy, 0, other.size);
+	java.util.Arrays.fill(views, 0, Math.max(size, other.size), null);
+	size=other.size;
+	softening=other.softening;
+    }
+
+    public void ensureCapacity(int capacity) {
+	if (capacity<=x.length) return;
+	x=grow(x, capacity);
+	y=grow(y, capacity);
+	vx=grow(vx, capacity);
+	vy=grow(vy, capacity);
+	mass=grow(mass, capacity);
+	fx=grow(fx, capacity);
+	fy=grow(fy, capacity);
+	PlanetEntity[] v=new PlanetEntity[capacity];
+	System.arraycopy(views, 0, v, 0, views.length);
+	views=v;
+    }
+
+    public double getX(int i)      { return x[i]; }
+    public double getY(int i)      { return y[i]; }
+    public double getVx(int i)     { return vx[i]; }
+    public double getVy(int i)     { return vy[i]; }
+    public double getMass(int i)   { return mass[i]; }
+    public double getForceX(int i) { return fx[i]; }
+    public double getForceY(int i) { return fy[i]; }
+
+    public void setPosition(int i, double x, double y) {
+	this.x[i]=x;
+	this.y[i]=y;
+    }
+
+    public void setVelocity(int i, double vx, double vy) {
+	this.vx[i]=vx;
+	this.vy[i]=vy;
+    }
+
+    public void setForce(int i, double fx, double fy) {
+	this.fx[i]=fx;
+	this.fy[i]=fy;
+    }
+
+    public void clearForces() {
+	for (int i=0; i<size; i++) {
+	    fx[i]=0;
+	    fy[i]=0;
+	}
+    }
+
+    /**
+     * Exact pairwise force sum over the arrays, using GravityKernel.
+     * Agrees with PlanetEntity.gForce2d to rounding when unsoftened.
+     */
+    public void sumForces2d() {
+	GravityKernel.sumForces(x, y, mass, fx, fy, size, softening);
+    }
+
+    /**
+     * Apply the current forces to the velocities for dt seconds
+     */
+    public void kick(double dt) {
+	kick(0, size, dt);
+    }
+
+    /**
+     * Kick bodies [from,to); see kick(double).
+     */
+    public void kick(int from, int to, double dt) {
+	for (int i=from; i<to; i++) {
+	    double s=dt/mass[i];
+	    vx[i]+=fx[i]*s;
+	    vy[i]+=fy[i]*s;
+	}
+    }
+
+    /**
+     * Move the positions along the velocities for dt seconds
+     */
+    public void drift(double dt) {
+	drift(0, size, dt);
+    }
+
+    /**
+     * Drift bodies [from,to); see drift(double).
+     */
+    public void drift(int from, int to, double dt) {
+	for (int i=from; i<to; i++) {
+	    x[i]+=vx[i]*dt;
+	    y[i]+=vy[i]*dt;
+	}
+    }
+
+    /**
+     * Kick then drift a single body by dt seconds
+     */
+    public void move(int i, double dt) {
+	double s=dt/mass[i];
+	vx[i]+=fx[i]*s;
+	vy[i]+=fy[i]*s;
+	x[i]+=vx[i]*dt;
+	y[i]+=vy[i]*dt;
+    }
+
+    /**
+     * @return Total kinetic energy, sum(m*v^2/2)
+     */
+    public double kineticEnergy() {
+	double e=0;
+	for (int i=0; i<size; i++) {
+	    e+=mass[i]*(vx[i]*vx[i]+vy[i]*vy[i]);
+	}
+	return e/2;
+    }
+
+    /**
+     * @return Total potential energy, -sum(G*m_i*m_j/r) over pairs, with
+     *         1/r softened as the forces are. O(n^2).
+     */
+    public double potentialEnergy() {
+	if (softening!=null) return softenedPotentialEnergy();
+	double e=0;
+	for (int i=0; i<size; i++) {
+	    double xi=x[i], yi=y[i];
+	    double s=0;
+	    for (int j=0; j<i; j++) {
+		double ddx=xi-x[j];
+		double ddy=yi-y[j];
+		s+=mass[j]/Math.sqrt(ddx*ddx+ddy*ddy);
+	    }
+	    e+=mass[i]*s;
+	}
+	return -G*e;
+    }
+
+    private double softenedPotentialEnergy() {
+	double e=0;
+	for (int i=0; i<size; i++) {
+	    double xi=x[i], yi=y[i];
+	    double s=0;
+	    for (int j=0; j<i; j++) {
+		double ddx=xi-x[j];
+		double ddy=yi-y[j];
+		s+=mass[j]*softening.inverse(ddx*ddx+ddy*ddy);
+	    }
+	    e+=mass[i]*s;
+	}
+	return -G*e;
+    }
+
+    public double totalEnergy() {
+	return kineticEnergy()+potentialEnergy();
+    }
+
+    // return the angle (in radians) of the vector (x,y), in [0,2*PI)
+    static double angle2d(double x, double y) {
+	if (x==0) return y>0? Math.PI/2 : Math.PI*3/2;
+
+	double theta=Math.atan(y/x);
+
+	if (x>0) {
+	    if (y>0) return theta;	 // quad 1
+	    else return Math.PI*2+theta; // quad 4
+	} else {
+	    return  Math.PI+theta; // quads 2&3
+	}
+    }
+
+    private static double[] grow(double[] a, int capacity) {
+	double[] b=new double[capacity];
+	System.arraycopy(a, 0, b, 0, a.length);
+	return b;
+    }
+}
@@ -0,0 +1,21 @@
+package org.phonybone.sprites;
+import java.util.ArrayList;
+
+/**
+ * A broad-phase collision pass: finds the pairs of entities whose
+ * bounding boxes (getX/getY/getWidth/getHeight) overlap without
+ * testing every pair, and hands them to a CollisionHandler for the
+ * exact collidesWith() test.
+ *
+ * @see SpatialHashBroadPhase
+ * @see SweepAndPruneBroadPhase
+ */
+public interface BroadPhase {
+    /**
+     * @param entities The list of Entity objects to check
+     * @param handler Called once for every overlapping pair
+     */
+    public void findPairs(ArrayList entities, CollisionHandler handler);
+
+    public String getName();
+}
@@ -0,0 +1,89 @@
+package org.phonybone.sprites;
+
+/**
+ * The window onto the world: which width x height rectangle of world
+ * coordinates is on the screen. Screen (0,0) is world (getX(),getY()).
+ * <p>
+ * The camera never looks past the edges of the world, unless the
+ * world is smaller than the view, in which case it stays at 0.
+ */
+public class Camera {
+    private double x, y;
+    private int width, height;
+    private int worldWidth, worldHeight;
+
+    /**
+     * @param width The width of the view (the screen) in pixels
+     * @param height The height of the view in pixels
+     * @param worldWidth The width of the world in pixels
+     * @param worldHeight The height of the world in pixels
+     */
+    public Camera(int width, int height, int worldWidth, int worldHeight) {
+	this.width=width;
+	this.height=height;
+	this.worldWidth=worldWidth;
+	this.worldHeight=worldHeight;
+    }
+
+    /** @return The world x at the left of the screen */
+    public int getX() {
+	return (int)Math.floor(x);
+    }
+
+    /** @return The world y at the top of the screen */
+    public int getY() {
+	return (int)Math.floor(y);
+    }
+
+    public int getWidth() {
+	return width;
+    }
+
+    public int getHeight() {
+	return height;
+    }
+
+    public int getWorldWidth() {
+	return worldWidth;
+    }
+
+    public int getWorldHeight() {
+	return worldHeight;
+    }
+
+    /**
+     * Move the view by (dx,dy) world pixels, stopping at the edges
+     */
+    public void pan(double dx, double dy) {
+	moveTo(x+dx, y+dy);
+    }
+
+    /**
+     * Put the top left of the view at world (x,y), or as near as the
+     * edges allow
+     */
+    public void moveTo(double x, double y) {
+	this.x=clamp(x, worldWidth-width);
+	this.y=clamp(y, worldHeight-height);
+    }
+
+    /**
+     * Centre the view on world (x,y), or as near as the edges allow
+     */
+    public void centerOn(double x, double y) {
+	moveTo(x-width/2.0, y-height/2.0);
+    }
+
+    /**
+     * @return True if any of the world rectangle (x,y,w,h) is in view
+     */
+    public boolean isVisible(double x, double y, double w, double h) {
+	return x+w>this.x && x<this.x+width && y+h>this.y && y<this.y+height;
+    }
+
+    private static double clamp(double v, double max) {
+	if (v>max) v=max;
+	if (v<0) v=0;
+	return v;
+    }
+}
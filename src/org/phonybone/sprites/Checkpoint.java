@@ -0,0 +1,171 @@
+package org.phonybone.sprites;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Saves and restores the state of a simulation in a compact binary
+ * file: a fixed header followed by the BodyStore columns, one after
+ * the other, as little-endian doubles:
+ * <pre>
+ *   0  int    magic "SPCK"
+ *   4  int    version (2)
+ *   8  int    body count n
+ *  12  int    column count (5)
+ *  16  long   steps taken
+ *  24  long   timestep (ms)
+ *  32  int    softening: 0 none, 1 Plummer, 2 spline (version 2)
+ *  36  int    unused
+ *  40  double softening length
+ *  48  ...    reserved, to HEADER bytes
+ *  HEADER     x[n] y[n] vx[n] vy[n] mass[n]
+ * </pre>
+ * Files are written and read through a memory mapping, so each column
+ * is a single bulk copy between the store's array and the page cache:
+ * a million bodies is 40MB and takes milliseconds either way.
+ * <p>
+ * A checkpoint holds everything needed to carry on, the store's
+ * Softening included: load one into a store, give it to a
+ * SimulationRunner with setSteps(getSteps()), and the run continues
+ * from there; load it twice and it can be forked. Version 1 files,
+ * from before softening was saved, read as unsoftened.
+ */
+public class Checkpoint {
+    private static final int MAGIC=0x5350434B;	// "SPCK"
+    private static final int VERSION=2;
+    private static final int PLUMMER=1, SPLINE=2;
+    private static final int COLUMNS=5;
+    private static final int HEADER=64;
+
+    private int bodyCount;
+    private long steps;
+    private long timestep;
+    private Softening softening;
+
+    private Checkpoint(int bodyCount, long steps, long timestep, Softening softening) {
+	this.bodyCount=bodyCount;
+	this.steps=steps;
+	this.timestep=timestep;
+	this.softening=softening;
+    }
+
+    public int getBodyCount() {
+	return bodyCount;
+    }
+
+    /** @return The number of steps the simulation had taken */
+    public long getSteps() {
+	return steps;
+    }
+
+    /** @return The simulation's timestep, in ms */
+    public long getTimestep() {
+	return timestep;
+    }
+
+    /** @return The store's softening, or null if it had none */
+    public Softening getSoftening() {
+	return softening;
+    }
+
+    /**
+     * Write the bodies to a file, replacing it if it exists
+     *
+     * @param file Where to write
+     * @param bodies The state to save
+     * @param steps The number of steps taken so far
+     * @param timestep The timestep, in ms
+     */
+    public static void write(File file, BodyStore bodies, long steps, long timestep) throws IOException {
+	int n=bodies.size();
+	long length=HEADER+(long)COLUMNS*n*8;
+	RandomAccessFile raf=new RandomAccessFile(file, "rw");
+	try {
+	    raf.setLength(length);
+	    MappedByteBuffer buf=raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+	    buf.order(ByteOrder.LITTLE_ENDIAN);
+	    buf.putInt(MAGIC);
+	    buf.putInt(VERSION);
+	    buf.putInt(n);
+	    buf.putInt(COLUMNS);
+	    buf.putLong(steps);
+	    buf.putLong(timestep);
+	    // written even when unsoftened: an old file may be reused
+	    Softening soft=bodies.getSoftening();
+	    buf.putInt(soft==null ? 0 : soft.isSpline() ? SPLINE : PLUMMER);
+	    buf.putInt(0);
+	    buf.putDouble(soft==null ? 0 : soft.getLength());
+	    buf.position(HEADER);
+	    DoubleBuffer d=buf.asDoubleBuffer();
+	    d.put(bodies.x, 0, n);
+	    d.put(bodies.y, 0, n);
+	    d.put(bodies.vx, 0, n);
+	    d.put(bodies.vy, 0, n);
+	    d.put(bodies.mass, 0, n);
+	} finally {
+	    raf.close();
+	}
+    }
+
+    /**
+     * Write a SimulationRunner's bodies, steps and timestep
+     */
+    public static void write(File file, SimulationRunner runner) throws IOException {
+	write(file, runner.getBodies(), runner.getSteps(), runner.getTimestep());
+    }
+
+    /**
+     * Read a checkpoint into a store, replacing whatever was in it (any
+     * PlanetEntity views on it are detached) and setting its softening.
+     * Forces are cleared; the integrator computes them when it starts.
+     *
+     * @param file The checkpoint
+     * @param bodies The store to fill
+     * @return The checkpoint's header, with the steps and timestep
+     */
+    public static Checkpoint read(File file, BodyStore bodies) throws IOException {
+	RandomAccessFile raf=new RandomAccessFile(file, "r");
+	try {
+	    long length=raf.length();
+	    if (length<HEADER) throw new IOException(file+": not a checkpoint (too short)");
+	    MappedByteBuffer buf=raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+	    buf.order(ByteOrder.LITTLE_ENDIAN);
+	    if (buf.getInt()!=MAGIC) throw new IOException(file+": not a checkpoint");
+	    int version=buf.getInt();
+	    if (version<1 || version>VERSION) throw new IOException(file+": checkpoint version "+version+", expected up to "+VERSION);
+	    int n=buf.getInt();
+	    int columns=buf.getInt();
+	    long steps=buf.getLong();
+	    long timestep=buf.getLong();
+	    int kind=buf.getInt();
+	    buf.getInt();
+	    double softLength=buf.getDouble();
+	    Softening soft=null;
+	    if (version>=2 && kind==PLUMMER) soft=Softening.plummer(softLength);
+	    else if (version>=2 && kind==SPLINE) soft=Softening.spline(softLength);
+	    else if (version>=2 && kind!=0) throw new IOException(file+": unknown softening "+kind);
+	    if (n<0 || columns!=COLUMNS || length<HEADER+(long)columns*n*8) {
+		throw new IOException(file+": truncated or corrupt checkpoint");
+	    }
+
+	    bodies.clear();
+	    bodies.resize(n);
+	    bodies.setSoftening(soft);
+	    buf.position(HEADER);
+	    DoubleBuffer d=buf.asDoubleBuffer();
+	    d.get(bodies.x, 0, n);
+	    d.get(bodies.y, 0, n);
+	    d.get(bodies.vx, 0, n);
+	    d.get(bodies.vy, 0, n);
+	    d.get(bodies.mass, 0, n);
+	    bodies.clearForces();
+	    return new Checkpoint(n, steps, timestep, soft);
+	} finally {
+	    raf.close();
+	}
+    }
+}
@@ -0,0 +1,12 @@
+package org.phonybone.sprites;
+
+/**
+ * Receives the candidate pairs found by a BroadPhase
+ */
+public interface CollisionHandler {
+    /**
+     * The bounding boxes of a and b overlap. Each pair is reported
+     * once per pass, in no particular order.
+     */
+    public void collision(Entity a, Entity b);
+}
@@ -0,0 +1,183 @@
+package org.phonybone.sprites;
+
+/**
+ * The parts of the screen that need repainting this frame, kept as a
+ * grid of cells. Rectangles are added in screen coordinates, and
+ * flip() turns the dirty cells into a short list of rectangles:
+ * runs of cells along each row, joined with the run below when they
+ * line up.
+ * <p>
+ * With a page-flipping BufferStrategy the buffer being drawn holds a
+ * frame from a little while ago, not the last one, so a cell stays
+ * dirty for the given number of frames after it was marked. Once most
+ * of the screen is dirty a single full-screen rectangle is cheaper
+ * than many small ones, and that is what flip() returns.
+ */
+public class DirtyRegion {
+    /** Above this fraction of dirty cells, repaint everything */
+    private static final double FULL_FRACTION=0.6;
+
+    private int width, height;
+    private int cellSize;
+    private int cols, rows;
+    private int history;
+
+    /** The frame each cell was last marked dirty in */
+    private long[] marked;
+    private long frame=1;
+    /** Everything is dirty until this frame */
+    private long fullUntil;
+
+    // the rectangles from the last flip()
+    private int count;
+    private int[] rx, ry, rw, rh;
+    private int area;
+
+    /**
+     * @param width The width of the screen
+     * @param height The height of the screen
+     * @param cellSize The size of a cell in pixels; rectangles are
+     *                 rounded out to whole cells
+     * @param history How many frames a mark lasts: the number of
+     *                buffers in the BufferStrategy
+     */
+    public DirtyRegion(int width, int height, int cellSize, int history) {
+	this.width=width;
+	this.height=height;
+	this.cellSize=cellSize;
+	this.history=history;
+	cols=(width+cellSize-1)/cellSize;
+	rows=(height+cellSize-1)/cellSize;
+	marked=new long[cols*rows];
+	int max=cols*rows;
+	rx=new int[max];
+	ry=new int[max];
+	rw=new int[max];
+	rh=new int[max];
+	markAll();
+    }
+
+    /**
+     * Mark the screen rectangle (x,y,w,h) dirty; parts off the screen
+     * are ignored
+     */
+    public void add(int x, int y, int w, int h) {
+	if (w<=0 || h<=0 || x+w<=0 || y+h<=0) return;
+	int c0=Math.max(x/cellSize, 0), c1=Math.min((x+w-1)/cellSize, cols-1);
+	int r0=Math.max(y/cellSize, 0), r1=Math.min((y+h-1)/cellSize, rows-1);
+	for (int r=r0; r<=r1; r++) {
+	    for (int c=c0; c<=c1; c++) {
+		marked[r*cols+c]=frame;
+	    }
+	}
+    }
+
+    /**
+     * Mark the whole screen dirty, e.g. after the background changed
+     */
+    public void markAll() {
+	fullUntil=frame+history-1;
+    }
+
+    /**
+     * Work out the rectangles to repaint for this frame, and start the
+     * next one
+     *
+     * @return The number of rectangles
+     */
+    public int flip() {
+	count=0;
+	area=0;
+	if (frame<=fullUntil) {
+	    full();
+	} else {
+	    long oldest=frame-history+1;
+	    int dirty=0;
+	    for (int i=0; i<marked.length; i++) {
+		if (marked[i]>=oldest) dirty++;
+	    }
+	    if (dirty>FULL_FRACTION*marked.length) {
+		full();
+	    } else {
+		runs(oldest);
+	    }
+	}
+	frame++;
+	return count;
+    }
+
+    public int getCount()   { return count; }
+    public int getX(int i)  { return rx[i]; }
+    public int getY(int i)  { return ry[i]; }
+    public int getWidth(int i)  { return rw[i]; }
+    public int getHeight(int i) { return rh[i]; }
+
+    /** @return The pixels covered by the last flip()'s rectangles */
+    public int getArea() {
+	return area;
+    }
+
+    /**
+     * @return True if screen rectangle (x,y,w,h) overlaps rectangle i
+     */
+    public boolean intersects(int i, int x, int y, int w, int h) {
+	return x+w>rx[i] && x<rx[i]+rw[i] && y+h>ry[i] && y<ry[i]+rh[i];
+    }
+
+    private void full() {
+	rx[0]=0;
+	ry[0]=0;
+	rw[0]=width;
+	rh[0]=height;
+	count=1;
+	area=width*height;
+    }
+
+    private void runs(long oldest) {
+	// rectangles from the previous row are [prevStart,prevEnd)
+	int prevStart=0, prevEnd=0;
+	for (int r=0; r<rows; r++) {
+	    int rowStart=count;
+	    int y=r*cellSize, h=Math.min(cellSize, height-y);
+	    int c=0;
+	    while (c<cols) {
+		if (marked[r*cols+c]<oldest) {
+		    c++;
+		    continue;
+		}
+		int start=c;
+		while (c<cols && marked[r*cols+c]>=oldest) c++;
+		int x=start*cellSize, w=Math.min(c*cellSize, width)-x;
+		area+=w*h;
+
+		// extend the matching run above, if there is one
+		int k=prevStart;
+		while (k<prevEnd && (rx[k]!=x || rw[k]!=w)) k++;
+		if (k<prevEnd) {
+		    rh[k]+=h;
+		    // move it out of the previous row's range and into this
+		    // row's, which starts right after it
+		    swap(k, --prevEnd);
+		    rowStart=prevEnd;
+		} else {
+		    rx[count]=x;
+		    ry[count]=y;
+		    rw[count]=w;
+		    rh[count]=h;
+		    count++;
+		}
+	    }
+	    prevStart=rowStart;
+	    prevEnd=count;
+	}
+    }
+
+    private void swap(int a, int b) {
+	if (a==b) return;
+	int t;
+	t=rx[a]; rx[a]=rx[b]; rx[b]=t;
+	t=ry[a]; ry[a]=ry[b]; ry[b]=t;
+	t=rw[a]; rw[a]=rw[b]; rw[b]=t;
+	t=rh[a]; rh[a]=rh[b]; rh[b]=t;
+    }
+}
@@ -25,6 +25,12 @@ public abstract class Entity {
     protected double dx;
     /** The current speed of this entity vertically (pixels/sec) */
     protected double dy;
+    /** True while this entity is waiting to be removed (see EntityManager) */
+    boolean removed;
+    /** The pool this entity goes back to when removed, if any */
+    EntityPool pool;
+    /** Where this entity was last drawn on the screen (drawnW 0 if it wasn't) */
+    int drawnX, drawnY, drawnW, drawnH;
 	
     /**
      * Construct a entity based on a sprite image and a location.
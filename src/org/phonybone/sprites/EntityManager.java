@@ -0,0 +1,99 @@
+package org.phonybone.sprites;
+import java.util.ArrayList;
+
+/**
+ * Owns the list of entities in the game and batches changes to it.
+ * Entities added or removed during a frame (while the list is being
+ * walked) are only recorded; applyChanges() then makes them all at
+ * once, between frames:
+ * <p>
+ * - removals are flagged on the entities and swept out in a single
+ *   compaction pass, O(n) however many there are (ArrayList.remove
+ *   would be O(n) each), keeping the order of the survivors
+ * - removed entities that came from an EntityPool go back to it
+ * - spawns are appended
+ * <p>
+ * The lists are reused, so a frame that fires and retires pooled
+ * entities allocates nothing once the lists have grown to size.
+ */
+public class EntityManager {
+    private ArrayList entities=new ArrayList();
+    private ArrayList spawnList=new ArrayList();
+    private ArrayList removeList=new ArrayList();
+
+    /**
+     * @return The live entities. The same list for the life of the
+     *         manager; don't modify it directly while a frame is running.
+     */
+    public ArrayList getEntities() {
+	return entities;
+    }
+
+    public int size() {
+	return entities.size();
+    }
+
+    /**
+     * Add an entity at the end of this frame
+     */
+    public void addEntity(Entity entity) {
+	spawnList.add(entity);
+    }
+
+    /**
+     * Remove an entity at the end of this frame. Asking more than once
+     * is harmless.
+     */
+    public void removeEntity(Entity entity) {
+	if (entity.removed) return;
+	entity.removed=true;
+	removeList.add(entity);
+    }
+
+    /**
+     * Apply this frame's removals and spawns
+     */
+    public void applyChanges() {
+	if (!removeList.isEmpty()) {
+	    int n=entities.size();
+	    int w=0;
+	    for (int r=0; r<n; r++) {
+		Entity e=(Entity)entities.get(r);
+		if (e.removed) continue;
+		if (w!=r) entities.set(w, e);
+		w++;
+	    }
+	    // trim from the end, which is O(1) per element
+	    for (int k=n-1; k>=w; k--) entities.remove(k);
+	}
+
+	for (int i=0; i<spawnList.size(); i++) {
+	    Entity e=(Entity)spawnList.get(i);
+	    // spawned and killed in the same frame
+	    if (!e.removed) entities.add(e);
+	}
+	spawnList.clear();
+
+	for (int i=0; i<removeList.size(); i++) {
+	    Entity e=(Entity)removeList.get(i);
+	    e.removed=false;
+	    if (e.pool!=null) {
+		EntityPool pool=e.pool;
+		e.pool=null;
+		pool.release(e);
+	    }
+	}
+	removeList.clear();
+    }
+
+    /**
+     * Drop everything at once, including pending changes. Pooled
+     * entities are not returned to their pools.
+     */
+    public void clear() {
+	for (int i=0; i<removeList.size(); i++) ((Entity)removeList.get(i)).removed=false;
+	entities.clear();
+	spawnList.clear();
+	removeList.clear();
+    }
+}
@@ -0,0 +1,52 @@
+package org.phonybone.sprites;
+
+/**
+ * A free list of entities of one kind, so short-lived things like
+ * shots can be reused rather than allocated and collected over and
+ * over. obtain() hands out a recycled entity if there is one, else a
+ * new one from create(); the caller resets its state before use.
+ * EntityManager gives an entity back to its pool when it is removed
+ * from the game.
+ */
+public abstract class EntityPool {
+    private Entity[] free=new Entity[16];
+    private int nFree;
+    private int created;
+
+    /**
+     * @return A brand new entity for the pool to hand out
+     */
+    protected abstract Entity create();
+
+    public Entity obtain() {
+	Entity e;
+	if (nFree>0) {
+	    e=free[--nFree];
+	    free[nFree]=null;
+	} else {
+	    e=create();
+	    created++;
+	}
+	e.pool=this;
+	return e;
+    }
+
+    public void release(Entity e) {
+	if (nFree==free.length) {
+	    Entity[] bigger=new Entity[2*free.length];
+	    System.arraycopy(free, 0, bigger, 0, nFree);
+	    free=bigger;
+	}
+	free[nFree++]=e;
+    }
+
+    /** @return How many entities are waiting to be reused */
+    public int getFreeCount() {
+	return nFree;
+    }
+
+    /** @return How many entities the pool has ever had to create */
+    public int getCreatedCount() {
+	return created;
+    }
+}
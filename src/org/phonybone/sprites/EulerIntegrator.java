@@ -0,0 +1,24 @@
+package org.phonybone.sprites;
+
+/**
+ * First order (semi-implicit) Euler: compute the forces, apply them to
+ * the velocities, then move along the new velocities. This is the
+ * update PlanetEntity.move always did, now scaled by dt. Cheap, but
+ * orbits drift unless the step is tiny.
+ */
+public class EulerIntegrator extends AbstractIntegrator {
+
+    public void step(BodyStore bodies, ForceEngine engine, double dt) {
+	engine.sumForces(bodies);
+	kick(bodies, engine, dt);
+	drift(bodies, engine, dt);
+    }
+
+    public int getForceEvaluations() {
+	return 1;
+    }
+
+    public String getName() {
+	return "euler";
+    }
+}
@@ -0,0 +1,73 @@
+package org.phonybone.sprites;
+
+/**
+ * An in-place radix-2 complex FFT of one fixed, power of two length.
+ * The bit reversal permutation and the twiddle factors are worked out
+ * once by the constructor, so transforms allocate nothing. Unscaled in
+ * both directions: a forward and an inverse transform multiply the
+ * data by n.
+ */
+public class Fft {
+    private int n;
+    private int[] reverse;
+    private double[] cos, sin;
+
+    /**
+     * @param n The length to transform, a power of two
+     */
+    public Fft(int n) {
+	if (n<1 || (n&(n-1))!=0) throw new IllegalArgumentException("FFT length must be a power of two: "+n);
+	this.n=n;
+	reverse=new int[n];
+	int bits=Integer.numberOfTrailingZeros(n);
+	for (int i=0; i<n; i++) {
+	    reverse[i]= bits==0 ? 0 : Integer.reverse(i)>>>(32-bits);
+	}
+	cos=new double[n/2+1];
+	sin=new double[n/2+1];
+	for (int i=0; i<=n/2; i++) {
+	    cos[i]=Math.cos(2*Math.PI*i/n);
+	    sin[i]=Math.sin(2*Math.PI*i/n);
+	}
+    }
+
+    public int getLength() {
+	return n;
+    }
+
+    /**
+     * Transform re/im[offset .. offset+n) in place
+     *
+     * @param inverse True for exp(+2 pi i jk/n), false for exp(-...)
+     */
+    public void transform(double[] re, double[] im, int offset, boolean inverse) {
+	for (int i=0; i<n; i++) {
+	    int j=reverse[i];
+	    if (j>i) {
+		double t=re[offset+i];
+		re[offset+i]=re[offset+j];
+		re[offset+j]=t;
+		t=im[offset+i];
+		im[offset+i]=im[offset+j];
+		im[offset+j]=t;
+	    }
+	}
+	double sign= inverse ? 1 : -1;
+	for (int size=2; size<=n; size<<=1) {
+	    int half=size>>1;
+	    int step=n/size;
+	    for (int start=0; start<n; start+=size) {
+		for (int k=0; k<half; k++) {
+		    double wr=cos[k*step], wi=sign*sin[k*step];
+		    int a=offset+start+k, b=a+half;
+		    double tr=re[b]*wr-im[b]*wi;
+		    double ti=re[b]*wi+im[b]*wr;
+		    re[b]=re[a]-tr;
+		    im[b]=im[a]-ti;
+		    re[a]+=tr;
+		    im[a]+=ti;
+		}
+	    }
+	}
+    }
+}
@@ -0,0 +1,527 @@
+package org.phonybone.sprites;
+import java.util.Random;
+
+/**
+ * Fast multipole force engine, for big, fairly even clouds of bodies.
+ * The bounding square is cut into a uniform quadtree whose leaves hold
+ * about leafSize bodies each. Every cell gets a multipole expansion of
+ * the mass beneath it (built at the leaves and shifted up the tree),
+ * and every cell gets a local expansion of the potential due to all
+ * the well separated mass, converted from the multipoles of the cells
+ * in its interaction list and shifted down the tree. A body's force is
+ * then its leaf's local expansion plus the exact sum over its own and
+ * the adjacent leaves. The work is O(n) for a fixed order.
+ * <p>
+ * The potential is 1/r (the force falls off as 1/r^2, as in
+ * gForce2d), which has no complex-variable expansion in the plane the
+ * way log r does, so the expansions are Cartesian Taylor series in
+ * (dx, dy) up to total degree 'order'. Derivatives of 1/r come from
+ * the usual recurrence, and since the grid is uniform the translation
+ * operators for each level are worked out once, for the 40 possible
+ * cell offsets, and reused every step. Each order costs more and is
+ * more accurate: on a random cloud, order 8 (the default) is within
+ * 1e-3 RMS of the exact forces, 12 within about 1e-4. A million
+ * bodies at order 8 take a few seconds, several times quicker than
+ * Barnes-Hut at theta=0.5 and fifty times more accurate.
+ * <p>
+ * The store's Softening applies to the exact near field sums only;
+ * the expansions are of plain 1/r, so the softening length should be
+ * well under a leaf cell.
+ * <p>
+ * setVerify() checks the forces against the exact sums for a random
+ * sample of bodies after every pass (see ForceError.sample()).
+ * <p>
+ * Everything lives in flat arrays reused between calls, so a steady
+ * state step doesn't allocate.
+ */
+public class FmmForceEngine implements ForceEngine {
+    /** Below this many bodies the exact sum is quicker */
+    private static final int DIRECT_BELOW=256;
+    private static final int MAX_LEVELS=11;
+
+    private int order;
+    private int leafSize;
+
+    // the coefficients of a series of total degree <= order, k=0..nc-1,
+    // are for dx^powA[k]*dy^powB[k]
+    private int nc;
+    private int[] powA, powB;
+    private int[][] index;
+
+    // M2L: local[m2lTo[t]] += table[offset*terms+t]*multipole[m2lFrom[t]].
+    // The coefficients go by degree, so the sources feeding local k are
+    // just multipole[0..m2lLength[k]), and the terms run k by k
+    private int[] m2lTo, m2lFrom;
+    private int[] m2lLength;
+    private double[][] m2l=new double[MAX_LEVELS+1][];
+    // M2M and L2L by child quadrant: both shift by the child's offset
+    // from its parent, so they share a table, read in opposite directions
+    private int[] shiftTo, shiftFrom;
+    private double[][][] shift=new double[MAX_LEVELS+1][][];
+
+    // the tree from the last pass: levels 0..levels, the leaves at 'levels'
+    private int levels;
+    private double[][] multipole=new double[MAX_LEVELS+1][];
+    private double[][] local=new double[MAX_LEVELS+1][];
+    private int[] cellStart=new int[0];
+    // the bodies sorted by leaf, in unit square coordinates
+    private int[] sorted=new int[0];
+    private double[] ux=new double[0], uy=new double[0], um=new double[0];
+    private double[] gx=new double[0], gy=new double[0];
+    private double[] px, py;
+    // the store's softening, and the unit square's size, for near()
+    private Softening softening;
+    private double unit;
+
+    private int verifySample;
+    private Random verifyRandom=new Random(1);
+    private ForceError lastError;
+
+    public FmmForceEngine() {
+	this(8, 32);
+    }
+
+    /**
+     * @param order The highest degree kept in the expansions
+     * @param leafSize About how many bodies to put in each leaf
+     */
+    public FmmForceEngine(int order, int leafSize) {
+	if (order<1) throw new IllegalArgumentException("order must be >= 1: "+order);
+	this.order=order;
+	this.leafSize=Math.max(leafSize, 1);
+	buildTerms();
+    }
+
+    public int getOrder() {
+	return order;
+    }
+
+    public String getName() {
+	return "fmm(order="+order+")";
+    }
+
+    /**
+     * Check each pass against the exact forces on a random sample of
+     * the bodies; see getLastError(). 0 turns checking off.
+     */
+    public void setVerify(int sample) {
+	this.verifySample=sample;
+    }
+
+    /** @return The error found by the last verified pass, or null */
+    public ForceError getLastError() {
+	return lastError;
+    }
+
+    public void sumForces(BodyStore bodies) {
+	int n=bodies.size();
+	if (n<DIRECT_BELOW) {
+	    GravityKernel.sumForces(bodies.x, bodies.y, bodies.mass, bodies.fx, bodies.fy, n, bodies.getSoftening());
+	} else {
+	    double size=sort(bodies);
+	    upward();
+	    downward();
+	    finish(bodies, size);
+	}
+	if (verifySample>0) lastError=ForceError.sample(bodies, verifySample, verifyRandom);
+    }
+
+    /*
+     * Scale the bodies into the unit square and bucket them by leaf.
+     * Returns the side of the square in world units.
+     */
+    private double sort(BodyStore bodies) {
+	int n=bodies.size();
+	double[] x=bodies.x, y=bodies.y;
+	double minx=x[0], maxx=x[0], miny=y[0], maxy=y[0];
+	for (int i=1; i<n; i++) {
+	    if (x[i]<minx) minx=x[i];
+	    if (x[i]>maxx) maxx=x[i];
+	    if (y[i]<miny) miny=y[i];
+	    if (y[i]>maxy) maxy=y[i];
+	}
+	double size=Math.max(maxx-minx, maxy-miny)*1.0001;
+	if (size==0) size=1;
+
+	int l=2;
+	while (l<MAX_LEVELS && (long)leafSize<<(2*l)<n) l++;
+	setLevels(l);
+	int side=1<<levels;
+	int cells=side*side;
+
+	if (sorted.length<n) {
+	    sorted=new int[n];
+	    ux=new double[n];
+	    uy=new double[n];
+	    um=new double[n];
+	    gx=new double[n];
+	    gy=new double[n];
+	}
+	int[] cell=sorted;	// borrowed to hold each body's leaf until the sort
+	for (int c=0; c<=cells; c++) cellStart[c]=0;
+	double scale=side/size;
+	for (int i=0; i<n; i++) {
+	    int ix=Math.min((int)((x[i]-minx)*scale), side-1);
+	    int iy=Math.min((int)((y[i]-miny)*scale), side-1);
+	    cell[i]=iy*side+ix;
+	    cellStart[cell[i]+1]++;
+	}
+	for (int c=0; c<cells; c++) cellStart[c+1]+=cellStart[c];
+	// place each body at its leaf's next free slot; cellStart[c] runs
+	// up to the start of c+1, and is put back afterwards
+	double inv=1/size;
+	double[] m=bodies.mass;
+	for (int i=0; i<n; i++) {
+	    int c=cell[i];
+	    int k=cellStart[c]++;
+	    gx[k]=i;	// the original index, parked until sorted[] is free
+	    ux[k]=(x[i]-minx)*inv;
+	    uy[k]=(y[i]-miny)*inv;
+	    um[k]=m[i];
+	}
+	for (int c=cells; c>0; c--) cellStart[c]=cellStart[c-1];
+	cellStart[0]=0;
+	for (int k=0; k<n; k++) sorted[k]=(int)gx[k];
+	return size;
+    }
+
+    private void upward() {
+	int side=1<<levels;
+	double w=1.0/side;
+	double[] mp=multipole[levels];
+	java.util.Arrays.fill(mp, 0, side*side*nc, 0);
+	// P2M: each leaf's bodies about its center
+	for (int iy=0; iy<side; iy++) {
+	    for (int ix=0; ix<side; ix++) {
+		int c=iy*side+ix;
+		double cx=(ix+0.5)*w, cy=(iy+0.5)*w;
+		int base=c*nc;
+		for (int k=cellStart[c]; k<cellStart[c+1]; k++) {
+		    powers(ux[k]-cx, uy[k]-cy);
+		    double m=um[k];
+		    for (int t=0; t<nc; t++) mp[base+t]+=m*px[powA[t]]*py[powB[t]];
+		}
+	    }
+	}
+	// M2M: shift the children's expansions to each parent's center
+	for (int l=levels-1; l>=2; l--) {
+	    int ps=1<<l;
+	    double[] parent=multipole[l], child=multipole[l+1];
+	    java.util.Arrays.fill(parent, 0, ps*ps*nc, 0);
+	    for (int iy=0; iy<ps; iy++) {
+		for (int ix=0; ix<ps; ix++) {
+		    int pb=(iy*ps+ix)*nc;
+		    for (int q=0; q<4; q++) {
+			int cb=((2*iy+(q>>1))*2*ps+2*ix+(q&1))*nc;
+			if (child[cb]==0) continue;
+			double[] table=shift[l+1][q];
+			for (int t=0; t<table.length; t++) {
+			    parent[pb+shiftTo[t]]+=table[t]*child[cb+shiftFrom[t]];
+			}
+		    }
+		}
+	    }
+	}
+    }
+
+    private void downward() {
+	int terms=m2lTo.length;
+	for (int l=2; l<=levels; l++) {
+	    int s=1<<l;
+	    double[] lc=local[l], mp=multipole[l];
+	    double[] table=m2l[l];
+	    if (l==2) {
+		java.util.Arrays.fill(lc, 0, s*s*nc, 0);
+	    } else {
+		// L2L: start from the parent's expansion, moved to our center
+		double[] parent=local[l-1];
+		java.util.Arrays.fill(lc, 0, s*s*nc, 0);
+		for (int iy=0; iy<s; iy++) {
+		    for (int ix=0; ix<s; ix++) {
+			int cb=(iy*s+ix)*nc;
+			if (mp[cb]==0) continue;
+			int pb=((iy>>1)*(s>>1)+(ix>>1))*nc;
+			double[] down=shift[l][(ix&1)|((iy&1)<<1)];
+			for (int t=0; t<down.length; t++) {
+			    lc[cb+shiftFrom[t]]+=down[t]*parent[pb+shiftTo[t]];
+			}
+		    }
+		}
+	    }
+	    // M2L: children of the parent's neighbours that aren't our neighbours
+	    for (int iy=0; iy<s; iy++) {
+		for (int ix=0; ix<s; ix++) {
+		    int cb=(iy*s+ix)*nc;
+		    if (mp[cb]==0) continue;
+		    int px2=ix>>1, py2=iy>>1;
+		    for (int jy=Math.max(2*(py2-1), 0); jy<Math.min(2*(py2+2), s); jy++) {
+			for (int jx=Math.max(2*(px2-1), 0); jx<Math.min(2*(px2+2), s); jx++) {
+			    if (Math.abs(jx-ix)<=1 && Math.abs(jy-iy)<=1) continue;
+			    int sb=(jy*s+jx)*nc;
+			    if (mp[sb]==0) continue;
+			    int kb=((ix-jx+3)*7+(iy-jy+3))*terms;
+			    for (int k=0; k<nc; k++) {
+				int len=m2lLength[k];
+				double sum=0;
+				for (int t=0; t<len; t++) sum+=table[kb+t]*mp[sb+t];
+				lc[cb+k]+=sum;
+				kb+=len;
+			    }
+			}
+		    }
+		}
+	    }
+	}
+    }
+
+    /*
+     * L2P and P2P at the leaves, then the forces back into the store
+     */
+    private void finish(BodyStore bodies, double size) {
+	softening=bodies.getSoftening();
+	unit=size;
+	int side=1<<levels;
+	double w=1.0/side;
+	double[] lc=local[levels];
+	for (int iy=0; iy<side; iy++) {
+	    for (int ix=0; ix<side; ix++) {
+		int c=iy*side+ix;
+		int from=cellStart[c], to=cellStart[c+1];
+		if (from==to) continue;
+		double cx=(ix+0.5)*w, cy=(iy+0.5)*w;
+		int base=c*nc;
+		for (int k=from; k<to; k++) {
+		    // the far field: the gradient of the local expansion
+		    powers(ux[k]-cx, uy[k]-cy);
+		    double sx=0, sy=0;
+		    for (int t=1; t<nc; t++) {
+			int a=powA[t], b=powB[t];
+			double l=lc[base+t];
+			if (a>0) sx+=a*l*px[a-1]*py[b];
+			if (b>0) sy+=b*l*px[a]*py[b-1];
+		    }
+		    gx[k]=sx;
+		    gy[k]=sy;
+		}
+		// the near field, exactly: this leaf and the adjacent ones
+		for (int jy=Math.max(iy-1, 0); jy<=Math.min(iy+1, side-1); jy++) {
+		    for (int jx=Math.max(ix-1, 0); jx<=Math.min(ix+1, side-1); jx++) {
+			int d=jy*side+jx;
+			near(from, to, cellStart[d], cellStart[d+1]);
+		    }
+		}
+	    }
+	}
+
+	double k=BodyStore.G/(size*size);
+	double[] fx=bodies.fx, fy=bodies.fy, m=bodies.mass;
+	int n=bodies.size();
+	for (int j=0; j<n; j++) {
+	    int i=sorted[j];
+	    fx[i]=k*m[i]*gx[j];
+	    fy[i]=k*m[i]*gy[j];
+	}
+    }
+
+    // add the direct pull of sorted bodies [sFrom,sTo) on [from,to) to gx/gy
+    private void near(int from, int to, int sFrom, int sTo) {
+	if (softening!=null) {
+	    nearSoftened(from, to, sFrom, sTo);
+	    return;
+	}
+	for (int k=from; k<to; k++) {
+	    double xk=ux[k], yk=uy[k];
+	    double sx=0, sy=0;
+	    for (int j=sFrom; j<sTo; j++) {
+		double ddx=xk-ux[j];
+		double ddy=yk-uy[j];
+		double r2=ddx*ddx+ddy*ddy;
+		if (r2==0) continue;
+		double inv=1/Math.sqrt(r2);
+		double f=um[j]*inv*inv*inv;
+		sx+=f*ddx;
+		sy+=f*ddy;
+	    }
+	    // grad(1/r) points back toward the source
+	    gx[k]-=sx;
+	    gy[k]-=sy;
+	}
+    }
+
+    // near() with the store's softening, which is in world units
+    private void nearSoftened(int from, int to, int sFrom, int sTo) {
+	double u2=unit*unit, u3=u2*unit;
+	for (int k=from; k<to; k++) {
+	    double xk=ux[k], yk=uy[k];
+	    double sx=0, sy=0;
+	    for (int j=sFrom; j<sTo; j++) {
+		double ddx=xk-ux[j];
+		double ddy=yk-uy[j];
+		double r2=ddx*ddx+ddy*ddy;
+		if (r2==0) continue;
+		double f=um[j]*u3*softening.inverseCube(r2*u2);
+		sx+=f*ddx;
+		sy+=f*ddy;
+	    }
+	    gx[k]-=sx;
+	    gy[k]-=sy;
+	}
+    }
+
+    private void powers(double dx, double dy) {
+	px[0]=1;
+	py[0]=1;
+	for (int a=1; a<=order; a++) {
+	    px[a]=px[a-1]*dx;
+	    py[a]=py[a-1]*dy;
+	}
+    }
+
+    /*
+     * Number the coefficients, and list the (target, source) pairs of
+     * the translations, which are the same at every level.
+     */
+    private void buildTerms() {
+	nc=(order+1)*(order+2)/2;
+	powA=new int[nc];
+	powB=new int[nc];
+	index=new int[order+1][order+1];
+	int k=0;
+	for (int d=0; d<=order; d++) {
+	    for (int a=d; a>=0; a--) {
+		powA[k]=a;
+		powB[k]=d-a;
+		index[a][d-a]=k++;
+	    }
+	}
+	px=new double[order+1];
+	py=new double[order+1];
+
+	// M2L: local beta from multipole alpha, |alpha|+|beta| <= order
+	int terms=0;
+	for (int s=0; s<nc; s++) {
+	    for (int t=0; t<nc; t++) {
+		if (powA[s]+powB[s]+powA[t]+powB[t]<=order) terms++;
+	    }
+	}
+	m2lTo=new int[terms];
+	m2lFrom=new int[terms];
+	m2lLength=new int[nc];
+	terms=0;
+	for (int t=0; t<nc; t++) {
+	    for (int s=0; s<nc; s++) {
+		if (powA[s]+powB[s]+powA[t]+powB[t]<=order) {
+		    m2lTo[terms]=t;
+		    m2lFrom[terms++]=s;
+		    m2lLength[t]++;
+		}
+	    }
+	}
+
+	// M2M/L2L: coefficient 'to' from coefficient 'from' with from <= to
+	// in both powers
+	terms=0;
+	for (int t=0; t<nc; t++) {
+	    for (int s=0; s<nc; s++) {
+		if (powA[s]<=powA[t] && powB[s]<=powB[t]) terms++;
+	    }
+	}
+	shiftTo=new int[terms];
+	shiftFrom=new int[terms];
+	terms=0;
+	for (int t=0; t<nc; t++) {
+	    for (int s=0; s<nc; s++) {
+		if (powA[s]<=powA[t] && powB[s]<=powB[t]) {
+		    shiftTo[terms]=t;
+		    shiftFrom[terms++]=s;
+		}
+	    }
+	}
+    }
+
+    /*
+     * Make sure the arrays and translation tables for levels 2..l exist
+     */
+    private void setLevels(int l) {
+	levels=l;
+	int cells=1<<(2*l);
+	if (cellStart.length<cells+1) cellStart=new int[cells+1];
+	for (int k=2; k<=l; k++) {
+	    int size=(1<<(2*k))*nc;
+	    if (multipole[k]==null || multipole[k].length<size) {
+		multipole[k]=new double[size];
+		local[k]=new double[size];
+	    }
+	    if (m2l[k]==null) buildTables(k);
+	}
+    }
+
+    private void buildTables(int l) {
+	double w=1.0/(1<<l);
+	double[] deriv=new double[nc];
+	int terms=m2lTo.length;
+	m2l[l]=new double[49*terms];
+	for (int ox=-3; ox<=3; ox++) {
+	    for (int oy=-3; oy<=3; oy++) {
+		if (Math.abs(ox)<=1 && Math.abs(oy)<=1) continue;
+		// R runs from the source's center to the target's
+		derivatives(ox*w, oy*w, deriv);
+		int kb=((ox+3)*7+(oy+3))*terms;
+		for (int t=0; t<terms; t++) {
+		    int to=m2lTo[t], from=m2lFrom[t];
+		    int a=powA[from], b=powB[from];
+		    int c=powA[to], d=powB[to];
+		    double sign= ((a+b)&1)==0 ? 1 : -1;
+		    m2l[l][kb+t]=sign*binomial(a+c, a)*binomial(b+d, b)*deriv[index[a+c][b+d]];
+		}
+	    }
+	}
+
+	// a child's center is a quarter of the parent's side from it.
+	// Multipoles move from the child's center up to the parent's,
+	// locals from the parent's down to the child's, both by
+	// C(to,from)*d^(to-from) with d the child's offset
+	shift[l]=new double[4][];
+	double h=w/2;
+	for (int q=0; q<4; q++) {
+	    double dx= (q&1)!=0 ? h : -h;
+	    double dy= (q&2)!=0 ? h : -h;
+	    shift[l][q]=new double[shiftTo.length];
+	    for (int t=0; t<shiftTo.length; t++) {
+		int to=shiftTo[t], from=shiftFrom[t];
+		int a=powA[to]-powA[from], b=powB[to]-powB[from];
+		double c=binomial(powA[to], powA[from])*binomial(powB[to], powB[from]);
+		shift[l][q][t]=c*Math.pow(dx, a)*Math.pow(dy, b);
+	    }
+	}
+    }
+
+    /*
+     * The Taylor coefficients D^k(1/r)/k! at (x, y), for every k of
+     * total degree <= order, by the recurrence
+     *   |k| r^2 b_k = -(2|k|-1)(x b_{k-e1} + y b_{k-e2}) - (|k|-1)(b_{k-2e1} + b_{k-2e2})
+     */
+    private void derivatives(double x, double y, double[] out) {
+	double r2=x*x+y*y;
+	out[0]=1/Math.sqrt(r2);
+	for (int t=1; t<nc; t++) {
+	    int a=powA[t], b=powB[t];
+	    int n=a+b;
+	    double s=0;
+	    if (a>0) s+=x*out[index[a-1][b]];
+	    if (b>0) s+=y*out[index[a][b-1]];
+	    s*=-(2*n-1);
+	    double u=0;
+	    if (a>1) u+=out[index[a-2][b]];
+	    if (b>1) u+=out[index[a][b-2]];
+	    s-=(n-1)*u;
+	    out[t]=s/(n*r2);
+	}
+    }
+
+    private static double binomial(int n, int k) {
+	double c=1;
+	for (int i=1; i<=k; i++) c=c*(n-k+i)/i;
+	return c;
+    }
+}
@@ -0,0 +1,23 @@
+package org.phonybone.sprites;
+
+/**
+ * Computes the gravitational force acting on every body in a store.
+ * After sumForces() returns, each body's fx/fy hold the total force
+ * exerted on it by all the other bodies.
+ * <p>
+ * Implementations are free to approximate (see BarnesHutForceEngine);
+ * PairwiseForceEngine is the exact O(n^2) reference.
+ */
+public interface ForceEngine {
+    /**
+     * Compute and store the force acting on each body
+     *
+     * @param bodies The bodies to act upon
+     */
+    public void sumForces(BodyStore bodies);
+
+    /**
+     * @return A short human readable name for reports
+     */
+    public String getName();
+}
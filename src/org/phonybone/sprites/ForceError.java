@@ -0,0 +1,165 @@
+package org.phonybone.sprites;
+import java.util.Random;
+
+/**
+ * Measures how far an approximate ForceEngine strays from the exact
+ * pairwise sum. The error of a planet is |F_approx-F_exact|/|F_exact|;
+ * we report the RMS and the maximum over all planets, along with the
+ * time each engine took.
+ * <p>
+ * Run main() to print an error/speed table for a range of theta values
+ * so a sensible Barnes-Hut setting can be chosen for a scene.
+ */
+public class ForceError {
+    private double rmsError;
+    private double maxError;
+    private long exactNanos;
+    private long approxNanos;
+
+    /**
+     * Run both engines over the bodies and compare. The bodies are
+     * left holding the approximate forces.
+     *
+     * @param approx The engine under test
+     * @param bodies The bodies to compute forces for
+     * @return The error report
+     */
+    public static ForceError measure(ForceEngine approx, BodyStore bodies) {
+	int n=bodies.size();
+	double[] ex=new double[n];
+	double[] ey=new double[n];
+
+	ForceError err=new ForceError();
+	long t0=System.nanoTime();
+	bodies.sumForces2d();
+	err.exactNanos=System.nanoTime()-t0;
+	for (int i=0; i<n; i++) {
+	    ex[i]=bodies.getForceX(i);
+	    ey[i]=bodies.getForceY(i);
+	}
+
+	t0=System.nanoTime();
+	approx.sumForces(bodies);
+	err.approxNanos=System.nanoTime()-t0;
+
+	double sum2=0;
+	for (int i=0; i<n; i++) {
+	    double ddx=bodies.getForceX(i)-ex[i];
+	    double ddy=bodies.getForceY(i)-ey[i];
+	    double mag=Math.sqrt(ex[i]*ex[i]+ey[i]*ey[i]);
+	    if (mag==0) continue;
+	    double e=Math.sqrt(ddx*ddx+ddy*ddy)/mag;
+	    sum2+=e*e;
+	    if (e>err.maxError) err.maxError=e;
+	}
+	err.rmsError= n>0 ? Math.sqrt(sum2/n) : 0;
+	return err;
+    }
+
+    /**
+     * Check the forces already in the store against the exact sums for
+     * a random sample of the bodies: O(count*n) rather than O(n^2), so
+     * cheap enough to run alongside a big simulation. The store's
+     * forces are left as they were.
+     *
+     * @param bodies Bodies holding an engine's forces
+     * @param count How many bodies to check
+     * @param random Picks the bodies
+     * @return The error report; getApproxNanos() is 0
+     */
+    public static ForceError sample(BodyStore bodies, int count, Random random) {
+	int n=bodies.size();
+	ForceError err=new ForceError();
+	if (n==0) return err;
+	count=Math.min(count, n);
+	int[] targets=new int[count];
+	double[] ax=new double[count], ay=new double[count];
+	for (int k=0; k<count; k++) {
+	    targets[k]= count==n ? k : random.nextInt(n);
+	    ax[k]=bodies.fx[targets[k]];
+	    ay[k]=bodies.fy[targets[k]];
+	}
+
+	long t0=System.nanoTime();
+	GravityKernel.sumForcesOn(bodies.x, bodies.y, bodies.mass, bodies.fx, bodies.fy, n, targets, count, bodies.getSoftening());
+	err.exactNanos=System.nanoTime()-t0;
+
+	double sum2=0;
+	for (int k=0; k<count; k++) {
+	    int i=targets[k];
+	    double ex=bodies.fx[i], ey=bodies.fy[i];
+	    double ddx=ax[k]-ex, ddy=ay[k]-ey;
+	    double mag=Math.sqrt(ex*ex+ey*ey);
+	    bodies.fx[i]=ax[k];
+	    bodies.fy[i]=ay[k];
+	    if (mag==0) continue;
+	    double e=Math.sqrt(ddx*ddx+ddy*ddy)/mag;
+	    sum2+=e*e;
+	    if (e>err.maxError) err.maxError=e;
+	}
+	err.rmsError=Math.sqrt(sum2/count);
+	return err;
+    }
+
+    public double getRmsError() {
+	return rmsError;
+    }
+
+    public double getMaxError() {
+	return maxError;
+    }
+
+    public long getExactNanos() {
+	return exactNanos;
+    }
+
+    public long getApproxNanos() {
+	return approxNanos;
+    }
+
+    public String toString() {
+	return String.format("rms=%.3e max=%.3e exact=%.2fms approx=%.2fms",
+			     rmsError, maxError, exactNanos/1e6, approxNanos/1e6);
+    }
+
+    /**
+     * Build a random cloud of bodies for error measurements
+     */
+    public static BodyStore randomBodies(int n, double size, long seed) {
+	Random r=new Random(seed);
+	BodyStore bodies=new BodyStore(n);
+	for (int i=0; i<n; i++) {
+	    bodies.add(r.nextDouble()*size, r.nextDouble()*size, 0, 0, 1+r.nextDouble()*99);
+	}
+	return bodies;
+    }
+
+    /**
+     * Usage: ForceError [n_planets]
+     */
+    public static void main(String argv[]) {
+	int n= argv.length>0 ? Integer.parseInt(argv[0]) : 2000;
+	BodyStore bodies=randomBodies(n, 100000, 1);
+
+	double[] thetas={0.0, 0.1, 0.2, 0.3, 0.5, 0.7, 1.0};
+	for (int i=0; i<thetas.length; i++) {
+	    ForceEngine bh=new BarnesHutForceEngine(thetas[i]);
+	    measure(bh, bodies);		// warm up
+	    System.out.println(bh.getName()+" n="+n+": "+measure(bh, bodies));
+	}
+	int[] orders={4, 6, 8, 10, 12};
+	for (int i=0; i<orders.length; i++) {
+	    ForceEngine fmm=new FmmForceEngine(orders[i], 32);
+	    measure(fmm, bodies);
+	    System.out.println(fmm.getName()+" n="+n+": "+measure(fmm, bodies));
+	}
+	int[] grids={64, 128, 256};
+	for (int i=0; i<grids.length; i++) {
+	    for (int near=0; near<=2; near++) {
+		ForceEngine pm=new PmForceEngine(grids[i], near);
+		measure(pm, bodies);
+		System.out.println(pm.getName()+" n="+n+": "+measure(pm, bodies));
+	    }
+	}
+    }
+}
@@ -0,0 +1,216 @@
+package org.phonybone.sprites;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Per-frame timing for the game loop. The loop brackets each phase
+ * (move, force, draw, show) and reports its time with record(); the
+ * times go into a Histogram per phase, plus one for the whole frame.
+ * <p>
+ * About once a second the p50/p99/max of every histogram, the frame
+ * rate, the entity counts and the loop thread's allocation rate are
+ * published for other threads to read (through the FrameStatsMBean
+ * interface over JMX, or drawOverlay() on screen) and the histograms
+ * start a new window. Recording allocates nothing; publishing
+ * allocates one small array a second.
+ */
+public class FrameStats implements FrameStatsMBean {
+    public static final int MOVE=0;
+    public static final int FORCE=1;
+    public static final int DRAW=2;
+    public static final int SHOW=3;
+    public static final int FRAME=4;
+    private static final String[] NAMES={"move", "force", "draw", "show", "frame"};
+
+    private static final com.sun.management.ThreadMXBean threads=threadBean();
+
+    private Histogram[] histograms=new Histogram[NAMES.length];
+    private long windowNanos;
+
+    // current window, touched only by the loop thread
+    private long windowStart;
+    private long windowBytes;
+    private long frameStart;
+    private long frames;
+
+    // published results: [phase*3+0]=p50, +1=p99, +2=max, in micros
+    private volatile double[] summary=new double[3*NAMES.length];
+    private volatile double framesPerSecond;
+    private volatile double allocationRate=-1;
+    private volatile int entityCount;
+    private volatile int bodyCount;
+    private volatile int drawnCount;
+    private volatile int culledCount;
+    private volatile boolean resetRequested;
+
+    public FrameStats() {
+	this(1000);
+    }
+
+    /**
+     * @param windowMillis How often the summary is published
+     */
+    public FrameStats(long windowMillis) {
+	for (int i=0; i<histograms.length; i++) histograms[i]=new Histogram();
+	windowNanos=windowMillis*1000000L;
+    }
+
+    /**
+     * Register this object with the platform MBean server, as
+     * org.phonybone.sprites:type=FrameStats. Failure is reported
+     * but not fatal; the game runs on without JMX.
+     */
+    public void register() {
+	try {
+	    ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+		new javax.management.ObjectName("org.phonybone.sprites:type=FrameStats"));
+	} catch (Exception e) {
+	    System.err.println("Can't register FrameStats MBean: "+e);
+	}
+    }
+
+    /** Call at the top of the game loop */
+    public void beginFrame() {
+	frameStart=System.nanoTime();
+	if (windowStart==0 || resetRequested) startWindow(frameStart);
+    }
+
+    /**
+     * Record the time spent in a phase this frame
+     *
+     * @param phase MOVE, FORCE, DRAW or SHOW
+     * @param nanos How long it took
+     */
+    public void record(int phase, long nanos) {
+	histograms[phase].record(nanos);
+    }
+
+    /**
+     * Record how many entities this frame drew, and how many it
+     * skipped as off the screen
+     */
+    public void recordCulling(int drawn, int culled) {
+	drawnCount=drawn;
+	culledCount=culled;
+    }
+
+    /**
+     * Call at the bottom of the game loop
+     *
+     * @param entities The number of entities in the game
+     * @param bodies The number of bodies being simulated
+     */
+    public void endFrame(int entities, int bodies) {
+	long now=System.nanoTime();
+	histograms[FRAME].record(now-frameStart);
+	frames++;
+	entityCount=entities;
+	bodyCount=bodies;
+	if (now-windowStart>=windowNanos) {
+	    publish(now);
+	    startWindow(now);
+	}
+    }
+
+    private void publish(long now) {
+	double[] s=new double[3*NAMES.length];
+	for (int i=0; i<NAMES.length; i++) {
+	    s[3*i]=histograms[i].getPercentile(50)/1000.0;
+	    s[3*i+1]=histograms[i].getPercentile(99)/1000.0;
+	    s[3*i+2]=histograms[i].getMax()/1000.0;
+	}
+	double seconds=(now-windowStart)/1e9;
+	framesPerSecond=frames/seconds;
+	long bytes=allocatedBytes();
+	allocationRate= bytes<0 ? -1 : (bytes-windowBytes)/seconds;
+	summary=s;
+    }
+
+    private void startWindow(long now) {
+	for (int i=0; i<histograms.length; i++) histograms[i].reset();
+	windowStart=now;
+	windowBytes=allocatedBytes();
+	frames=0;
+	resetRequested=false;
+    }
+
+    /**
+     * Draw the latest summary as a small table
+     */
+    public void drawOverlay(Graphics g, int x, int y) {
+	double[] s=summary;
+	g.setColor(Color.green);
+	int line=y;
+	g.drawString(String.format("%.0f fps  %d entities (%d drawn, %d culled)  %d bodies  %.1f MB/s",
+				   framesPerSecond, entityCount, drawnCount, culledCount, bodyCount, allocationRate/1e6), x, line);
+	for (int i=0; i<NAMES.length; i++) {
+	    line+=14;
+	    g.drawString(String.format("%-6s p50 %7.0f  p99 %7.0f  max %7.0f us",
+				       NAMES[i], s[3*i], s[3*i+1], s[3*i+2]), x, line);
+	}
+    }
+
+    public double getFrameP50Micros() { return summary[3*FRAME]; }
+    public double getFrameP99Micros() { return summary[3*FRAME+1]; }
+    public double getFrameMaxMicros() { return summary[3*FRAME+2]; }
+
+    public double getMoveP50Micros() { return summary[3*MOVE]; }
+    public double getMoveP99Micros() { return summary[3*MOVE+1]; }
+    public double getMoveMaxMicros() { return summary[3*MOVE+2]; }
+
+    public double getForceP50Micros() { return summary[3*FORCE]; }
+    public double getForceP99Micros() { return summary[3*FORCE+1]; }
+    public double getForceMaxMicros() { return summary[3*FORCE+2]; }
+
+    public double getDrawP50Micros() { return summary[3*DRAW]; }
+    public double getDrawP99Micros() { return summary[3*DRAW+1]; }
+    public double getDrawMaxMicros() { return summary[3*DRAW+2]; }
+
+    public double getShowP50Micros() { return summary[3*SHOW]; }
+    public double getShowP99Micros() { return summary[3*SHOW+1]; }
+    public double getShowMaxMicros() { return summary[3*SHOW+2]; }
+
+    public double getFramesPerSecond() {
+	return framesPerSecond;
+    }
+
+    public int getEntityCount() {
+	return entityCount;
+    }
+
+    public int getBodyCount() {
+	return bodyCount;
+    }
+
+    public int getDrawnCount() {
+	return drawnCount;
+    }
+
+    public int getCulledCount() {
+	return culledCount;
+    }
+
+    public double getAllocationRate() {
+	return allocationRate;
+    }
+
+    /** Safe from any thread: the loop thread starts a new window next frame */
+    public void reset() {
+	resetRequested=true;
+    }
+
+    private static long allocatedBytes() {
+	if (threads==null) return -1;
+	return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+	java.lang.management.ThreadMXBean bean=ManagementFactory.getThreadMXBean();
+	if (!(bean instanceof com.sun.management.ThreadMXBean)) return null;
+	com.sun.management.ThreadMXBean sun=(com.sun.management.ThreadMXBean)bean;
+	if (!sun.isThreadAllocatedMemorySupported()) return null;
+	sun.setThreadAllocatedMemoryEnabled(true);
+	return sun;
+    }
+}
@@ -0,0 +1,40 @@
+package org.phonybone.sprites;
+
+/**
+ * The JMX view of FrameStats. Times are in microseconds and cover the
+ * most recently published window (about a second of frames).
+ */
+public interface FrameStatsMBean {
+    public double getFrameP50Micros();
+    public double getFrameP99Micros();
+    public double getFrameMaxMicros();
+
+    public double getMoveP50Micros();
+    public double getMoveP99Micros();
+    public double getMoveMaxMicros();
+
+    public double getForceP50Micros();
+    public double getForceP99Micros();
+    public double getForceMaxMicros();
+
+    public double getDrawP50Micros();
+    public double getDrawP99Micros();
+    public double getDrawMaxMicros();
+
+    public double getShowP50Micros();
+    public double getShowP99Micros();
+    public double getShowMaxMicros();
+
+    public double getFramesPerSecond();
+    public int getEntityCount();
+    public int getBodyCount();
+    /** Entities drawn in the last frame */
+    public int getDrawnCount();
+    /** Entities skipped in the last frame because they were off the screen */
+    public int getCulledCount();
+    /** Bytes allocated per second by the game loop thread, or -1 if unknown */
+    public double getAllocationRate();
+
+    /** Start the current window afresh */
+    public void reset();
+}
@@ -3,6 +3,7 @@ package org.phonybone.sprites;
 import java.awt.Canvas;
 import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
@@ -38,11 +39,80 @@ public class Game extends Canvas {
     /** True if the game is currently "running", i.e. the game loop is looping */
     private boolean gameRunning = false;
     private boolean gameOver = false;
+    /** Batches the spawning and removal of entities to once per frame */
+    private EntityManager entityManager = new EntityManager();
     /** The list of all the entities that exist in our game */
-    private ArrayList entities = new ArrayList();
+    private ArrayList entities = entityManager.getEntities();
+    /** Recycles shots, so firing doesn't allocate */
+    private EntityPool shotPool = new EntityPool() {
+	    protected Entity create() {
+		return new ShotEntity(Game.this,"sprites/shot.gif",0,0);
+	    }
+	};
     private ArrayList planets;
-    /** The list of entities that need to be removed from the game this loop */
-    private ArrayList removeList = new ArrayList();
+    /** The state of all the planets, which are views into this store */
+    private BodyStore bodies = new BodyStore();
+    /** Times the force engine, so the force pass shows up separately in the stats */
+    private TimedForceEngine forceTimer = new TimedForceEngine(new PairwiseForceEngine());
+    /** Steps the planets at a fixed timestep (ms), whatever the frame rate */
+    private SimulationRunner simulation = new SimulationRunner(bodies, forceTimer, 10);
+    /** True to step the planets on a thread of their own */
+    private boolean pipelined = false;
+    /** Steps a copy of the bodies while pipelined; null until the game runs */
+    private SimulationThread simThread;
+    /** Brings the simulation thread's results to the game loop */
+    private SnapshotExchange snapshots;
+    /** Per-phase frame timings, also published over JMX */
+    private FrameStats stats = new FrameStats();
+    /** The width and height of the map, in pixels */
+    private static final int MAP_SIZE = 100000;
+    /** The part of the world on the screen */
+    private Camera camera = new Camera(800,600,MAP_SIZE,MAP_SIZE);
+    /** The background, drawn a tile at a time as it comes into view */
+    private TileMap map = new TileMap(new StarfieldTileSource(1,40),MAP_SIZE,MAP_SIZE,256,800,600);
+    /** True to repaint only the parts of the screen that changed each frame */
+    private boolean dirtyRendering = false;
+    /** The parts of the screen to repaint; marks last two frames, one per buffer */
+    private DirtyRegion dirtyRegion = new DirtyRegion(800,600,32,2);
+    /** The camera's view of the map, kept for repainting dirty rectangles */
+    private RetainedLayer background = new RetainedLayer(800,600) {
+	    protected void paint(Graphics2D g) {
+		map.draw(g,camera);
+	    }
+	};
+    /** True if the next dirty-rectangle frame must repaint everything */
+    private boolean repaintAll = true;
+    /** Where the camera was for the last dirty-rectangle frame */
+    private int lastCameraX, lastCameraY;
+    /** The screen area the stats overlay is drawn in */
+    private static final int STATS_X = 10, STATS_Y = 20, STATS_W = 620, STATS_H = 96;
+    /** Key and mouse events on their way from the AWT thread to the game loop */
+    private InputQueue input = new InputQueue(256);
+    /** Where the mouse was at the last press or drag, while dragging */
+    private int dragX, dragY;
+    private boolean dragging = false;
+    /** The number of key presses we've had while waiting for an "any key" press */
+    private int pressCount = 1;
+    /** Told about game events, e.g. the game starting or being paused */
+    private ArrayList listeners = new ArrayList();
+    /** Groups the sprite draws of a frame by atlas page */
+    private SpriteBatch spriteBatch = new SpriteBatch();
+    /** True if the frame stats should be drawn over the game */
+    private boolean showStats = false;
+    /** The planets' recent paths, drawn behind them when showTrails is set */
+    private OrbitTrails trails = new OrbitTrails(64,2,Color.white);
+    private boolean showTrails = false;
+    /** Finds the entities that might be colliding, without checking every pair */
+    private BroadPhase broadPhase = new SpatialHashBroadPhase(32);
+    /** Runs the exact check on the broad phase's candidates and notifies both entities */
+    private CollisionHandler collisionHandler = new CollisionHandler() {
+	    public void collision(Entity a, Entity b) {
+		if (a.collidesWith(b)) {
+		    a.collidedWith(b);
+		    b.collidedWith(a);
+		}
+	    }
+	};
     /** The entity representing the player */
     private Entity ship;
     /** The speed at which the player's ship should move (pixels/sec) */
@@ -102,12 +172,23 @@ public class Game extends Canvas {
 		
 	// add a key input system (defined below) to our canvas
 	// so we can respond to key pressed (and mouse events, too.)
-	addKeyListener(new GameKeyHandler());
-	addMouseListener(new GameMouseHandler());
+	addKeyListener(new GameKeyHandler(input));
+	GameMouseHandler mouseHandler = new GameMouseHandler(input);
+	addMouseListener(mouseHandler);
+	addMouseMotionListener(mouseHandler);
 
 	// request the focus so key events come to us
 	requestFocus();
 
+	// pack sprites into a few large images, so the sprite batch
+	// can draw a whole page's worth at a time; first, since sprites
+	// are only packed as they're decoded
+	SpriteStore.get().enableAtlas(1024);
+
+	// start decoding the sprites in the background while the window
+	// comes up, rather than in the first frame that needs each one
+	SpriteStore.get().preload("sprites/manifest.txt");
+
 	// create the buffering strategy which will allow AWT
 	// to manage our accelerated graphics
 	createBufferStrategy(2);
@@ -116,6 +197,9 @@ public class Game extends Canvas {
 	// initialise the entities in our game so there's something
 	// to see at startup
 	initEntities();
+
+	// make the frame timings visible to jconsole and friends
+	stats.register();
     }
 	
     /**
@@ -124,13 +208,34 @@ public class Game extends Canvas {
      */
     private void startGame() {
 	// clear out any existing entities and intialise a new set
-	entities.clear();
+	entityManager.clear();
+	repaintAll = true;
+	stopPipeline();
+	bodies.clear();
+	trails.clear();
 	initEntities();
+	simulation.restart();
 		
 	// blank out any keyboard settings we might currently have
 	leftPressed = false;
 	rightPressed = false;
 	firePressed = false;
+
+	for (int i=0;i<listeners.size();i++) {
+	    ((GameListener) listeners.get(i)).gameStarted();
+	}
+    }
+
+    /**
+     * Be told about game events. Listeners are called on the game
+     * loop thread.
+     */
+    public void addGameListener(GameListener listener) {
+	listeners.add(listener);
+    }
+
+    public void removeGameListener(GameListener listener) {
+	listeners.remove(listener);
     }
 	
     /**
@@ -138,8 +243,140 @@ public class Game extends Canvas {
      * entitiy will be added to the overall list of entities in the game.
      */
     private void initEntities() {
-	planets=PlanetEntity.init_planets(this);
-	entities.addAll(planets);
+	planets=PlanetEntity.init_planets(this,bodies);
+	for (int i=0;i<planets.size();i++) {
+	    entityManager.addEntity((Entity) planets.get(i));
+	}
+	entityManager.applyChanges();
+    }
+	
+    /**
+     * Choose the engine used to compute planetary forces, e.g. the exact
+     * PairwiseForceEngine or the approximate BarnesHutForceEngine.
+     *
+     * @param forceEngine The engine to use from the next frame on
+     */
+    public void setForceEngine(ForceEngine forceEngine) {
+	stopPipeline();
+	forceTimer = new TimedForceEngine(forceEngine);
+	simulation.setForceEngine(forceTimer);
+    }
+
+    public ForceEngine getForceEngine() {
+	return forceTimer.getEngine();
+    }
+
+    /**
+     * Choose between repainting the whole screen every frame, and
+     * repainting only the rectangles where entities moved, appeared or
+     * vanished (with the background kept in an offscreen layer). The
+     * latter saves a great deal of fill rate when little moves.
+     */
+    public void setDirtyRendering(boolean dirtyRendering) {
+	this.dirtyRendering = dirtyRendering;
+	repaintAll = true;
+    }
+
+    /**
+     * Step the planets on a simulation thread of their own, rather than
+     * in the game loop. The loop then draws the newest snapshot the
+     * thread has published, interpolated to the moment of drawing, so
+     * a slow frame never holds up the physics or the other way round.
+     */
+    public void setPipelined(boolean pipelined) {
+	stopPipeline();
+	this.pipelined = pipelined;
+    }
+
+    // start the simulation thread on a copy of the bodies; the
+    // planets' own store then only receives snapshots
+    private void startPipeline() {
+	BodyStore simBodies = new BodyStore(bodies.size());
+	simBodies.copyFrom(bodies);
+	SimulationRunner runner = new SimulationRunner(simBodies,forceTimer.getEngine(),simulation.getIntegrator(),simulation.getTimestep());
+	snapshots = new SnapshotExchange(runner.getTimestep());
+	snapshots.prime(simBodies);
+	runner.setRenderStage(snapshots,1);
+	simThread = new SimulationThread(runner);
+	simThread.start();
+    }
+
+    // stop the simulation thread; it's started again, from the bodies
+    // as last drawn, the next time the game runs
+    private void stopPipeline() {
+	if (simThread != null) {
+	    simThread.halt();
+	    simThread = null;
+	    snapshots = null;
+	}
+    }
+
+    /**
+     * @return The camera, whose view of the world is drawn on the screen
+     */
+    public Camera getCamera() {
+	return camera;
+    }
+
+    /**
+     * @return The frame timings of the game loop
+     */
+    public FrameStats getFrameStats() {
+	return stats;
+    }
+
+    /**
+     * Show or hide the frame timings overlay
+     */
+    public void setShowStats(boolean showStats) {
+	this.showStats = showStats;
+    }
+
+    /**
+     * Soften the planets' gravity, e.g. Softening.plummer(eps), or with
+     * null don't
+     */
+    public void setSoftening(Softening softening) {
+	stopPipeline();
+	bodies.setSoftening(softening);
+	simulation.restart();
+    }
+
+    /**
+     * Merge planets that come within the merger's radius of each
+     * other, or with null don't. Only the unpipelined simulation
+     * merges: the pipeline hands over snapshots of a fixed set of
+     * bodies.
+     */
+    public void setMerger(BodyMerger merger) {
+	simulation.setMerger(merger);
+    }
+
+    /**
+     * Show or hide the planets' orbit trails
+     */
+    public void setShowTrails(boolean showTrails) {
+	this.showTrails = showTrails;
+	trails.clear();
+	repaintAll = true;
+    }
+
+    /**
+     * Choose the collision broad phase, e.g. a SpatialHashBroadPhase or
+     * a SweepAndPruneBroadPhase
+     */
+    public void setBroadPhase(BroadPhase broadPhase) {
+	this.broadPhase = broadPhase;
+    }
+
+    /**
+     * Choose how the planets are integrated through time
+     *
+     * @param integrator e.g. a LeapfrogIntegrator or RK4Integrator
+     */
+    public void setIntegrator(Integrator integrator) {
+	stopPipeline();
+	simulation.setIntegrator(integrator);
     }
 	
     /**
@@ -153,12 +390,25 @@ public class Game extends Canvas {
 	
     /**
      * Remove an entity from the game. The entity removed will
-     * no longer move or be drawn.
+     * no longer move or be drawn from the next frame on.
      * 
      * @param entity The entity that should be removed
      */
     public void removeEntity(Entity entity) {
-	removeList.add(entity);
+	entityManager.removeEntity(entity);
+	// what it left behind on the screen has to be painted over
+	dirtyRegion.add(entity.drawnX,entity.drawnY,entity.drawnW,entity.drawnH);
+	entity.drawnW = 0;
+    }
+
+    /**
+     * Add an entity to the game. It will start moving and being
+     * drawn from the next frame on.
+     *
+     * @param entity The entity to add
+     */
+    public void addEntity(Entity entity) {
+	entityManager.addEntity(entity);
     }
 	
     /**
@@ -167,6 +417,9 @@ public class Game extends Canvas {
     public void notifyDeath() {
 	message = "Oh no! They got you, try again?";
 	waitingForKeyPress=true;
+	for (int i=0;i<listeners.size();i++) {
+	    ((GameListener) listeners.get(i)).playerDied();
+	}
     }
 	
     /**
@@ -176,6 +429,9 @@ public class Game extends Canvas {
     public void notifyWin() {
 	message = "Well done! You Win!";
 	waitingForKeyPress=true;
+	for (int i=0;i<listeners.size();i++) {
+	    ((GameListener) listeners.get(i)).playerWon();
+	}
     }
 	
     /**
@@ -208,16 +464,125 @@ public class Game extends Canvas {
      */
     public void tryToFire() {
 	// check that we have waiting long enough to fire
-	if (System.currentTimeMillis() - lastFire < firingInterval) {
+	if (ship == null || System.currentTimeMillis() - lastFire < firingInterval) {
 	    return;
 	}
 		
-	// if we waited long enough, create the shot entity, and record the time.
+	// if we waited long enough, take a shot from the pool, and record the time.
 	lastFire = System.currentTimeMillis();
-	ShotEntity shot = new ShotEntity(this,"sprites/shot.gif",ship.getX()+10,ship.getY()-30);
-	entities.add(shot);
+	ShotEntity shot = (ShotEntity) shotPool.obtain();
+	shot.reset(ship.getX()+10,ship.getY()-30);
+	addEntity(shot);
     }
 	
+    /**
+     * Draw the whole screen: the map, then every entity the camera
+     * can see
+     */
+    private void drawAll(Graphics2D g) {
+	// the map covers the whole screen, so there's no need to clear it
+	map.draw(g,camera);
+
+	// entities are in world coordinates; skip those the
+	// camera can't see
+	g.translate(-camera.getX(),-camera.getY());
+	if (showTrails) {
+	    trails.draw(g,bodies);
+	}
+	int culled = 0;
+	for (int i=0;i<entities.size();i++) {
+	    Entity entity = (Entity)entities.get(i);
+	    if (!camera.isVisible(entity.getX(),entity.getY(),entity.getWidth(),entity.getHeight())) {
+		culled++;
+	    } else {
+		draw(g,entity);
+	    }
+	}
+	spriteBatch.flush(g);
+	g.translate(camera.getX(),camera.getY());
+	stats.recordCulling(entities.size()-culled,culled);
+    }
+
+    /**
+     * Repaint just the parts of the screen that changed: where each
+     * entity was and now is, if it moved, and the stats overlay. Each
+     * dirty rectangle is restored from the background layer, then the
+     * entities overlapping it are drawn again, clipped to it.
+     */
+    private void drawDirty(Graphics2D g) {
+	// the background is a picture of the map under the camera, so
+	// it's out of date once the camera moves
+	int camX = camera.getX(), camY = camera.getY();
+	if (camX != lastCameraX || camY != lastCameraY) {
+	    background.invalidate();
+	    lastCameraX = camX;
+	    lastCameraY = camY;
+	}
+	if (background.validate(getGraphicsConfiguration())) {
+	    repaintAll = true;
+	}
+	// trails change all over the screen every frame
+	if (repaintAll || showTrails) {
+	    dirtyRegion.markAll();
+	    repaintAll = false;
+	}
+
+	// mark where entities moved from and to, in screen coordinates
+	int culled = 0;
+	for (int i=0;i<entities.size();i++) {
+	    Entity entity = (Entity)entities.get(i);
+	    int x = entity.getX()-camX, y = entity.getY()-camY;
+	    int w = entity.getWidth(), h = entity.getHeight();
+	    if (!camera.isVisible(entity.getX(),entity.getY(),w,h)) {
+		culled++;
+		w = 0;
+		h = 0;
+	    }
+	    if (x != entity.drawnX || y != entity.drawnY || w != entity.drawnW || h != entity.drawnH) {
+		dirtyRegion.add(entity.drawnX,entity.drawnY,entity.drawnW,entity.drawnH);
+		dirtyRegion.add(x,y,w,h);
+		entity.drawnX = x;
+		entity.drawnY = y;
+		entity.drawnW = w;
+		entity.drawnH = h;
+	    }
+	}
+	if (showStats) {
+	    dirtyRegion.add(STATS_X,STATS_Y-15,STATS_W,STATS_H);
+	}
+
+	int n = dirtyRegion.flip();
+	for (int k=0;k<n;k++) {
+	    int x = dirtyRegion.getX(k), y = dirtyRegion.getY(k);
+	    int w = dirtyRegion.getWidth(k), h = dirtyRegion.getHeight(k);
+	    g.setClip(x,y,w,h);
+	    background.draw(g,x,y,w,h);
+	    g.translate(-camX,-camY);
+	    if (showTrails) {
+		trails.draw(g,bodies);
+	    }
+	    for (int i=0;i<entities.size();i++) {
+		Entity entity = (Entity)entities.get(i);
+		if (entity.drawnW > 0 && dirtyRegion.intersects(k,entity.drawnX,entity.drawnY,entity.drawnW,entity.drawnH)) {
+		    draw(g,entity);
+		}
+	    }
+	    spriteBatch.flush(g);
+	    g.translate(camX,camY);
+	}
+	g.setClip(null);
+	stats.recordCulling(entities.size()-culled,culled);
+    }
+
+    // draw one entity, batching sprites
+    private void draw(Graphics g, Entity entity) {
+	if (entity instanceof SpriteEntity) {
+	    ((SpriteEntity) entity).draw(spriteBatch);
+	} else {
+	    entity.draw(g);
+	}
+    }
+
     /**
      * The main game loop. This loop is running during all game
      * play as is responsible for the following activities:
@@ -236,6 +601,12 @@ public class Game extends Canvas {
 
 	// keep looping round til the game ends
 	while (!gameOver) {
+	    stats.beginFrame();
+	    long phaseStart;
+
+	    // act on the keys and mouse since the last frame
+	    processInput();
+
 	    // work out how long its been since the last update, this
 	    // will be used to calculate how far the entities should
 	    // move this loop
@@ -252,6 +623,7 @@ public class Game extends Canvas {
 	    if (waitingForKeyPress) {
 		g.setColor(Color.black);
 		g.fillRect(0,0,800,600);
+		repaintAll = true;
 
 		g.setColor(Color.white);
 		g.drawString(message,(800-g.getFontMetrics().stringWidth(message))/2,250);
@@ -260,26 +632,71 @@ public class Game extends Canvas {
 			
 	    // cycle round asking each entity to move itself
 	    if (gameRunning) {
-		g.setColor(Color.black);
-		g.fillRect(0,0,800,600);
-
+		// planets are stepped by the simulation at its own fixed
+		// timestep; everything else moves by the frame time
+		phaseStart = System.nanoTime();
 		for (int i=0;i<entities.size();i++) {
 		    Entity entity = (Entity) entities.get(i);
-		    entity.move(delta);
+		    if (!(entity instanceof PlanetEntity)) entity.move(delta);
+		}
+		if (pipelined) {
+		    if (simThread == null) {
+			startPipeline();
+		    }
+		    simThread.setPaused(false);
+		    snapshots.acquire().interpolate(bodies,System.nanoTime());
+		} else {
+		    simulation.advance(delta);
+		    if (bodies.size() < planets.size()) {
+			removeMergedPlanets();
+		    }
+		}
+		if (showTrails) {
+		    trails.update(bodies);
 		}
 
-		PlanetEntity.sumForces2d(planets);
+		// brute force would check every pair; let the broad
+		// phase pick out the ones that could be touching
+		broadPhase.findPairs(entities,collisionHandler);
 
-		for (int i=0;i<entities.size();i++) {
-		    Entity entity = (Entity)entities.get(i);
-		    entity.draw(g);
+		if (firePressed) {
+		    tryToFire();
 		}
+
+		// now the list isn't being walked, make this frame's
+		// removals and spawns in one go
+		entityManager.applyChanges();
+
+		// the force engine ran inside advance(); split its time out
+		long forceNanos = forceTimer.takeNanos();
+		stats.record(FrameStats.FORCE,forceNanos);
+		stats.record(FrameStats.MOVE,System.nanoTime()-phaseStart-forceNanos);
+
+		phaseStart = System.nanoTime();
+		if (dirtyRendering) {
+		    drawDirty(g);
+		} else {
+		    drawAll(g);
+		}
+		stats.record(FrameStats.DRAW,System.nanoTime()-phaseStart);
+	    } else if (simThread != null) {
+		simThread.setPaused(true);
+	    }
+
+	    if (showStats) {
+		stats.drawOverlay(g,STATS_X,STATS_Y);
 	    }
 
 	    // finally, we've completed drawing so clear up the graphics
 	    // and flip the buffer over
 	    g.dispose();
+	    phaseStart = System.nanoTime();
 	    strategy.show();
+	    if (strategy.contentsLost() || background.contentsLost()) {
+		repaintAll = true;
+	    }
+	    stats.record(FrameStats.SHOW,System.nanoTime()-phaseStart);
+	    stats.endFrame(entities.size(),bodies.size());
 			
 	    // finally pause for a bit. Note: this should run us at about
 	    // 100 fps but on windows this might vary each loop due to
@@ -292,27 +709,192 @@ public class Game extends Canvas {
     }
 	
     /**
-     * A class to handle keyboard input from the user. The class
-     * handles both dynamic input during game play, i.e. left/right 
+     * Handle the keyboard and mouse input queued since the last frame.
+     * This covers both dynamic input during game play, i.e. left/right
      * and shoot, and more static type input (i.e. press any key to
-     * continue)
-     * 
-     * This has been implemented as an inner class more through 
-     * habbit then anything else. Its perfectly normal to implement
-     * this as seperate class if slight less convienient.
-     * 
-     * @author Kevin Glass
+     * continue). It runs on the game loop thread, between frames, so
+     * it can change the game (even start a new one) safely.
      */
+    private void processInput() {
+	long event;
+	while ((event = input.poll()) != 0) {
+	    int code = InputQueue.code(event);
+	    switch (InputQueue.type(event)) {
+	    case InputQueue.KEY_PRESSED:
+		keyPressed(code);
+		break;
+	    case InputQueue.KEY_RELEASED:
+		keyReleased(code);
+		break;
+	    case InputQueue.KEY_TYPED:
+		keyTyped((char) InputQueue.a(event));
+		break;
+	    case InputQueue.MOUSE_PRESSED:
+		dragX = InputQueue.a(event);
+		dragY = InputQueue.b(event);
+		dragging = true;
+		break;
+	    case InputQueue.MOUSE_DRAGGED:
+		if (dragging) {
+		    // the map follows the mouse, so the camera goes the other way
+		    int x = InputQueue.a(event), y = InputQueue.b(event);
+		    camera.pan(dragX-x,dragY-y);
+		    dragX = x;
+		    dragY = y;
+		}
+		break;
+	    case InputQueue.MOUSE_RELEASED:
+		dragging = false;
+		break;
+	    }
+	}
+    }
+
+    private void keyPressed(int keyCode) {
+	// if we're waiting for an "any key" typed then we don't 
+	// want to do anything with just a "press"
+	if (waitingForKeyPress) {
+	    waitingForKeyPress=false;
+	    return;
+	}
+
+	if (keyCode == KeyEvent.VK_LEFT) {
+	    leftPressed = true;
+	}
+	if (keyCode == KeyEvent.VK_RIGHT) {
+	    rightPressed = true;
+	}
+	if (keyCode == KeyEvent.VK_SPACE) {
+	    firePressed = true;
+	}
+    }
+
+    private void keyReleased(int keyCode) {
+	// if we're waiting for an "any key" typed then we don't 
+	// want to do anything with just a "released"
+	if (waitingForKeyPress) {
+	    waitingForKeyPress=false;
+	    return;
+	}
+
+	if (keyCode == KeyEvent.VK_LEFT) {
+	    leftPressed = false;
+	}
+	if (keyCode == KeyEvent.VK_RIGHT) {
+	    rightPressed = false;
+	}
+	if (keyCode == KeyEvent.VK_SPACE) {
+	    firePressed = false;
+	}
+    }
+
+    private void keyTyped(char keyChar) {
+	// if we're waiting for a "any key" type then
+	// check if we've recieved any recently. We may
+	// have had a keyType() event from the user releasing
+	// the shoot or move keys, hence the use of the "pressCount"
+	// counter.
+	if (waitingForKeyPress) {
+	    if (pressCount == 1) {
+		// since we've now recieved our key typed
+		// event we can mark it as such and start 
+		// our new game
+		waitingForKeyPress=false;
+		startGame();
+		pressCount = 0;
+	    } else {
+		pressCount++;
+	    }
+	}
+
+	switch (keyChar) {
+	case ' ':
+	    gameRunning=!gameRunning;
+	    for (int i=0;i<listeners.size();i++) {
+		GameListener listener = (GameListener) listeners.get(i);
+		if (gameRunning) {
+		    listener.gameResumed();
+		} else {
+		    listener.gamePaused();
+		}
+	    }
+	    break;
+	case 't':
+	case 'T':
+	    setShowTrails(!showTrails);
+	    break;
+	case 'q':
+	case 'Q':
+	case 27:		// escape (in theory)
+	    gameOver=true;
+	    for (int i=0;i<listeners.size();i++) {
+		((GameListener) listeners.get(i)).gameOver();
+	    }
+	    break;
+	}
+    }
+
+    /**
+     * Take the planets whose bodies were merged away out of the game,
+     * straight away since they no longer have a position to collide or
+     * draw at. The survivors may have changed index, so the trails
+     * start over.
+     */
+    private void removeMergedPlanets() {
+	for (int i=planets.size()-1;i>=0;i--) {
+	    PlanetEntity planet = (PlanetEntity) planets.get(i);
+	    if (!planet.isAlive()) {
+		entityManager.removeEntity(planet);
+		planets.remove(i);
+	    }
+	}
+	entityManager.applyChanges();
+	trails.clear();
+	repaintAll = true;
+    }
 
     /**
      * The entry point into the game. We'll simply create an
      * instance of class which will start the display and game
      * loop.
      * 
-     * @param argv The arguments that are passed into our game
+     * @param argv The arguments that are passed into our game:
+     *             "-bh [theta]" selects the Barnes-Hut force engine,
+     *             "-par [threads]" the multi-core exact engine,
+     *             "-fmm [order]" the fast multipole engine,
+     *             "-pm [grid]" the particle-mesh engine (with P3M),
+     *             then optionally "-int euler|leapfrog|rk4|block",
+     *             "-stats" to show the frame timings, "-dirty" to
+     *             repaint only what changed, "-pipeline" to run
+     *             the planets on their own thread, "-trails" to
+     *             show the planets' orbits ('t' toggles them),
+     *             "-soft eps" to soften gravity and "-merge radius"
+     *             to merge planets that pass that close
      */
     public static void main(String argv[]) {
 	Game game=new Game();
+	if (argv.length>0 && argv[0].equals("-bh")) {
+	    double theta = argv.length>1 ? Double.parseDouble(argv[1]) : 0.5;
+	    game.setForceEngine(new BarnesHutForceEngine(theta));
+	} else if (argv.length>0 && argv[0].equals("-par")) {
+	    int threads = argv.length>1 ? Integer.parseInt(argv[1]) : Runtime.getRuntime().availableProcessors();
+	    game.setForceEngine(new ParallelForceEngine(threads));
+	} else if (argv.length>0 && argv[0].equals("-fmm")) {
+	    int order = argv.length>1 ? Integer.parseInt(argv[1]) : 8;
+	    game.setForceEngine(new FmmForceEngine(order,32));
+	} else if (argv.length>0 && argv[0].equals("-pm")) {
+	    int grid = argv.length>1 ? Integer.parseInt(argv[1]) : 128;
+	    game.setForceEngine(new PmForceEngine(grid,1));
+	}
+	for (int i=0; i<argv.length; i++) {
+	    if (argv[i].equals("-int") && i+1<argv.length) game.setIntegrator(SimulationRunner.integratorForName(argv[i+1]));
+	    if (argv[i].equals("-stats")) game.setShowStats(true);
+	    if (argv[i].equals("-dirty")) game.setDirtyRendering(true);
+	    if (argv[i].equals("-pipeline")) game.setPipelined(true);
+	    if (argv[i].equals("-trails")) game.setShowTrails(true);
+	    if (argv[i].equals("-soft") && i+1<argv.length) game.setSoftening(Softening.plummer(Double.parseDouble(argv[i+1])));
+	    if (argv[i].equals("-merge") && i+1<argv.length) game.setMerger(new BodyMerger(Double.parseDouble(argv[i+1])));
+	}
 	
 	// Start the main game loop, note: this method will not
 	// return until the game has finished running. Hence we are
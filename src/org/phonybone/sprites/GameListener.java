@@ -0,0 +1,21 @@
+package org.phonybone.sprites;
+
+/**
+ * Told about the big events of a game. Every call is made from the
+ * game loop thread, between frames, so listeners may look at and
+ * change the game freely.
+ */
+public interface GameListener {
+    /** A new game has been set up */
+    public void gameStarted();
+    /** Play has stopped, e.g. the player paused */
+    public void gamePaused();
+    /** Play has started again */
+    public void gameResumed();
+    /** The player has died */
+    public void playerDied();
+    /** The player has won */
+    public void playerWon();
+    /** The game is ending; the loop stops after this frame */
+    public void gameOver();
+}
@@ -2,10 +2,25 @@ package org.phonybone.sprites;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 
+/**
+ * Passes mouse presses and drags to the game loop through an
+ * InputQueue; the loop pans the map when the mouse is dragged.
+ */
 public class GameMouseHandler extends MouseAdapter {
+    private InputQueue input;
+
+    public GameMouseHandler(InputQueue input) {
+	this.input=input;
+    }
+
     public void mousePressed(MouseEvent e) {
+	input.offer(InputQueue.MOUSE_PRESSED,e.getButton(),e.getX(),e.getY());
+    }
+    public void mouseDragged(MouseEvent e) {
+	input.offer(InputQueue.MOUSE_DRAGGED,0,e.getX(),e.getY());
     }
     public void mouseReleased(MouseEvent e) {
+	input.offer(InputQueue.MOUSE_RELEASED,e.getButton(),e.getX(),e.getY());
     }
     public void mouseEntered(MouseEvent e) {
     }
@@ -0,0 +1,192 @@
+package org.phonybone.sprites;
+
+/**
+ * The pairwise gravity kernel. The force on body i from body j is
+ * <pre>
+ *     F = -G*m_i*m_j*(p_i-p_j)/r^3
+ * </pre>
+ * which is the same vector gForce2d builds from an angle, but taken
+ * straight from dx/dy and one square root: no atan/cos/sin, and no
+ * double[] per pair. Everything here works on BodyStore columns and
+ * allocates nothing.
+ * <p>
+ * Each sum also comes with a Softening (null for none), which replaces
+ * 1/r^3; a softened pair of coincident bodies feels no force rather
+ * than an infinite one.
+ */
+public final class GravityKernel {
+    private GravityKernel() {
+    }
+
+    /**
+     * Add the force between bodies i and j to both of them (equal
+     * and opposite).
+     */
+    public static void pair(double[] x, double[] y, double[] m, double[] fx, double[] fy, int i, int j) {
+	pair(x, y, m, fx, fy, i, j, null);
+    }
+
+    public static void pair(double[] x, double[] y, double[] m, double[] fx, double[] fy, int i, int j, Softening soft) {
+	double ddx=x[i]-x[j];
+	double ddy=y[i]-y[j];
+	double r2=ddx*ddx+ddy*ddy;
+	double s=-BodyStore.G*m[i]*m[j]*inverseCube(r2, soft);
+	double f0=s*ddx;
+	double f1=s*ddy;
+	fx[i]+=f0;
+	fy[i]+=f1;
+	fx[j]-=f0;
+	fy[j]-=f1;
+    }
+
+    /**
+     * Exact O(n^2) sum over the first n bodies, visiting each pair once.
+     * The forces are overwritten, not added to.
+     */
+    public static void sumForces(double[] x, double[] y, double[] m, double[] fx, double[] fy, int n) {
+	sumForces(x, y, m, fx, fy, n, null);
+    }
+
+    public static void sumForces(double[] x, double[] y, double[] m, double[] fx, double[] fy, int n, Softening soft) {
+	for (int i=0; i<n; i++) {
+	    fx[i]=0;
+	    fy[i]=0;
+	}
+	sumRows(x, y, m, fx, fy, 0, n, soft);
+    }
+
+    /**
+     * Overwrite the forces on bodies targets[0..count) with the sum over
+     * all n bodies. O(count*n), and each pair is computed from the
+     * target's side only.
+     */
+    public static void sumForcesOn(double[] x, double[] y, double[] m, double[] fx, double[] fy, int n, int[] targets, int count) {
+	sumForcesOn(x, y, m, fx, fy, n, targets, count, null);
+    }
+
+    public static void sumForcesOn(double[] x, double[] y, double[] m, double[] fx, double[] fy, int n, int[] targets, int count, Softening soft) {
+	double G=BodyStore.G;
+	for (int k=0; k<count; k++) {
+	    int i=targets[k];
+	    double xi=x[i], yi=y[i];
+	    double sx=0, sy=0;
+	    for (int j=0; j<n; j++) {
+		if (j==i) continue;
+		double ddx=xi-x[j];
+		double ddy=yi-y[j];
+		double r2=ddx*ddx+ddy*ddy;
+		double s=m[j]*inverseCube(r2, soft);
+		sx+=s*ddx;
+		sy+=s*ddy;
+	    }
+	    fx[i]=-G*m[i]*sx;
+	    fy[i]=-G*m[i]*sy;
+	}
+    }
+
+    /**
+     * The jerk (rate of change of acceleration) of each of the first n
+     * bodies,
+     * <pre>
+     *     j_i = sum G*m_j*(v/r^3 - 3*(r.v)*r/r^5),  r=p_j-p_i, v=v_j-v_i
+     * </pre>
+     * written to jx/jy. O(n^2); used to pick timesteps. Softened gravity
+     * is taken as Plummer of about the same softness.
+     */
+    public static void jerk(double[] x, double[] y, double[] vx, double[] vy, double[] m, double[] jx, double[] jy, int n) {
+	jerk(x, y, vx, vy, m, jx, jy, n, null);
+    }
+
+    public static void jerk(double[] x, double[] y, double[] vx, double[] vy, double[] m, double[] jx, double[] jy, int n, Softening soft) {
+	double G=BodyStore.G;
+	double eps2=0;
+	if (soft!=null) eps2=soft.getPlummerLength()*soft.getPlummerLength();
+	for (int i=0; i<n; i++) {
+	    double sx=0, sy=0;
+	    for (int j=0; j<n; j++) {
+		if (j==i) continue;
+		double rx=x[j]-x[i], ry=y[j]-y[i];
+		double wx=vx[j]-vx[i], wy=vy[j]-vy[i];
+		double r2=rx*rx+ry*ry+eps2;
+		double inv2=1/r2;
+		double inv3=inv2/Math.sqrt(r2);
+		double rv=3*(rx*wx+ry*wy)*inv2;
+		sx+=m[j]*inv3*(wx-rv*rx);
+		sy+=m[j]*inv3*(wy-rv*ry);
+	    }
+	    jx[i]=G*sx;
+	    jy[i]=G*sy;
+	}
+    }
+
+    /**
+     * Add the forces for every pair (i,j) with from <= i < to and j < i.
+     * Only fx/fy entries below 'to' are touched. Splitting [0,n) into
+     * row blocks and summing each block into its own buffer gives the
+     * same pairs as sumForces().
+     */
+    public static void sumRows(double[] x, double[] y, double[] m, double[] fx, double[] fy, int from, int to) {
+	sumRows(x, y, m, fx, fy, from, to, null);
+    }
+
+    public static void sumRows(double[] x, double[] y, double[] m, double[] fx, double[] fy, int from, int to, Softening soft) {
+	if (soft!=null) {
+	    sumRowsSoftened(x, y, m, fx, fy, from, to, soft);
+	    return;
+	}
+	double G=BodyStore.G;
+	for (int i=from; i<to; i++) {
+	    double xi=x[i], yi=y[i];
+	    double gmi=-G*m[i];
+	    double fxi=0, fyi=0;
+	    for (int j=0; j<i; j++) {
+		double ddx=xi-x[j];
+		double ddy=yi-y[j];
+		double r2=ddx*ddx+ddy*ddy;
+		double inv=1/Math.sqrt(r2);
+		double s=gmi*m[j]*inv*inv*inv;
+		double f0=s*ddx;
+		double f1=s*ddy;
+		fxi+=f0;
+		fyi+=f1;
+		fx[j]-=f0;
+		fy[j]-=f1;
+	    }
+	    fx[i]+=fxi;
+	    fy[i]+=fyi;
+	}
+    }
+
+    // sumRows with softening, kept apart so the plain loop stays tight
+    private static void sumRowsSoftened(double[] x, double[] y, double[] m, double[] fx, double[] fy, int from, int to, Softening soft) {
+	double G=BodyStore.G;
+	for (int i=from; i<to; i++) {
+	    double xi=x[i], yi=y[i];
+	    double gmi=-G*m[i];
+	    double fxi=0, fyi=0;
+	    for (int j=0; j<i; j++) {
+		double ddx=xi-x[j];
+		double ddy=yi-y[j];
+		double r2=ddx*ddx+ddy*ddy;
+		double s=gmi*m[j]*soft.inverseCube(r2);
+		double f0=s*ddx;
+		double f1=s*ddy;
+		fxi+=f0;
+		fyi+=f1;
+		fx[j]-=f0;
+		fy[j]-=f1;
+	    }
+	    fx[i]+=fxi;
+	    fy[i]+=fyi;
+	}
+    }
+
+    /**
+     * 1/r^3, or its softened stand-in
+     */
+    public static double inverseCube(double r2, Softening soft) {
+	if (soft!=null) return soft.inverseCube(r2);
+	double inv=1/Math.sqrt(r2);
+	return inv*inv*inv;
+    }
+}
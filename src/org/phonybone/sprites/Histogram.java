@@ -0,0 +1,83 @@
+package org.phonybone.sprites;
+
+/**
+ * A fixed-size, log-linear histogram of non-negative long values (in
+ * the style of HdrHistogram). Values are grouped by power of two, and
+ * each power of two is split into 128 linear sub-buckets, so every
+ * recorded value is kept to better than 1% precision from 1 up to
+ * Long.MAX_VALUE, in one array allocated up front. record() never
+ * allocates, which makes it cheap enough to call several times a frame.
+ * <p>
+ * Not thread safe: record and read from the same thread, or publish a
+ * summary (as FrameStats does).
+ */
+public class Histogram {
+    private static final int SUB_BITS=7;
+    private static final int SUB=1<<SUB_BITS;		// 128
+    private static final int BUCKETS=2*SUB+(63-SUB_BITS-1)*SUB;
+
+    private long[] counts=new long[BUCKETS];
+    private long total;
+    private long max;
+    private long sum;
+
+    public void record(long value) {
+	if (value<0) value=0;
+	counts[index(value)]++;
+	total++;
+	sum+=value;
+	if (value>max) max=value;
+    }
+
+    public void reset() {
+	java.util.Arrays.fill(counts, 0);
+	total=0;
+	max=0;
+	sum=0;
+    }
+
+    public long getCount() {
+	return total;
+    }
+
+    public long getMax() {
+	return max;
+    }
+
+    public double getMean() {
+	return total==0 ? 0 : (double)sum/total;
+    }
+
+    /**
+     * @param p The percentile wanted, 0-100
+     * @return The value at or below which p percent of the values fall
+     *         (to within the bucket precision), or 0 if empty
+     */
+    public long getPercentile(double p) {
+	if (total==0) return 0;
+	long rank=(long)Math.ceil(p/100*total);
+	if (rank<1) rank=1;
+	long seen=0;
+	for (int i=0; i<BUCKETS; i++) {
+	    seen+=counts[i];
+	    if (seen>=rank) return Math.min(highestEquivalent(i), max);
+	}
+	return max;
+    }
+
+    private static int index(long v) {
+	if (v<2*SUB) return (int)v;
+	int e=63-Long.numberOfLeadingZeros(v);	// >= SUB_BITS+1
+	int shift=e-SUB_BITS;
+	int top=(int)(v>>>shift);		// in [SUB, 2*SUB)
+	return 2*SUB+(shift-1)*SUB+(top-SUB);
+    }
+
+    // the largest value that lands in bucket i
+    private static long highestEquivalent(int i) {
+	if (i<2*SUB) return i;
+	int shift=(i-2*SUB)/SUB+1;
+	long top=SUB+(i-2*SUB)%SUB;
+	return ((top+1)<<shift)-1;
+    }
+}
@@ -1,37 +1,42 @@
 package org.phonybone.sprites;
 import java.awt.Graphics;
 import java.awt.Image;
-import java.lang.ArrayIndexOutOfBoundsException;
 
 public class IndexedSprite {
-    private Image[] images;
+    private Sprite[] frames;
     private int nImages;
 
     public IndexedSprite(int nImages) {
-	this.images=new Image[nImages];
+	this.frames=new Sprite[nImages];
 	this.nImages=0;
     }
 
     public int getWidth() {
-	return images[0].getWidth(null);
+	return frames[0].getWidth();
     }
 
     public int getHeight() {
-	return images[0].getHeight(null);
+	return frames[0].getHeight();
     }
 
     public void draw(Graphics g, int x, int y, int i) {
-	g.drawImage(images[i],x,y,null);
+	frames[i].draw(g,x,y);
+    }
+
+    // queue frame i on a batch instead of drawing it now
+    public void draw(SpriteBatch batch, int x, int y, int i) {
+	batch.add(frames[i],x,y);
     }
 
     public boolean addImage(Image image) {
-	boolean yay=true;
-	try {
-	    this.images[this.nImages]=image;
-	    this.nImages++;
-	} catch (ArrayIndexOutOfBoundsException e) {
-	    yay=false;
-	}
-	return yay;
+	if (this.nImages==this.frames.length) return false;
+	this.frames[this.nImages]=new Sprite(image);
+	this.nImages++;
+	return true;
+    }
+
+    // move every frame into the store's atlas, if it has one
+    public void pack(SpriteStore store) {
+	for (int i=0; i<nImages; i++) store.pack(frames[i]);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,115 @@
+package org.phonybone.sprites;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free queue of input events from any number of
+ * threads (the AWT event thread, a network thread...) to the one
+ * game loop thread, which drains it once a frame.
+ * <p>
+ * Each event is packed into a single long: a type, a code (key code or
+ * button) and two 16 bit values (key char, or mouse x and y). Slots
+ * carry a sequence number: a producer claims a slot by advancing the
+ * tail with a CAS, writes the event, then publishes it by setting the
+ * slot's sequence; the consumer reads slots in order until it finds
+ * one not yet published. Nothing is allocated per event.
+ * <p>
+ * When the queue is full new events are dropped and counted, rather
+ * than blocking the event thread.
+ */
+public class InputQueue {
+    public static final int KEY_PRESSED=1;
+    public static final int KEY_RELEASED=2;
+    public static final int KEY_TYPED=3;
+    public static final int MOUSE_PRESSED=4;
+    public static final int MOUSE_RELEASED=5;
+    public static final int MOUSE_DRAGGED=6;
+
+    private int mask;
+    private long[] events;
+    /** Slot i is ready for the producer claiming position p when seq=p, for the consumer when seq=p+1 */
+    private AtomicLongArray sequence;
+    private AtomicLong tail=new AtomicLong();
+    private long head;	// consumer's
+    private AtomicLong dropped=new AtomicLong();
+
+    /**
+     * @param capacity The most events held at once; rounded up to a power of two
+     */
+    public InputQueue(int capacity) {
+	int size=Integer.highestOneBit(Math.max(capacity, 2)-1)<<1;
+	mask=size-1;
+	events=new long[size];
+	sequence=new AtomicLongArray(size);
+	for (int i=0; i<size; i++) sequence.set(i, i);
+    }
+
+    /**
+     * Add an event; safe from any thread
+     *
+     * @return False if the queue was full and the event was dropped
+     */
+    public boolean offer(int type, int code, int a, int b) {
+	long event=pack(type, code, a, b);
+	while (true) {
+	    long p=tail.get();
+	    int slot=(int)p&mask;
+	    long seq=sequence.get(slot);
+	    if (seq==p) {
+		if (tail.compareAndSet(p, p+1)) {
+		    events[slot]=event;
+		    // the volatile write publishes the event to the consumer
+		    sequence.set(slot, p+1);
+		    return true;
+		}
+	    } else if (seq<p) {
+		// the consumer hasn't freed this slot yet: full
+		dropped.incrementAndGet();
+		return false;
+	    }
+	    // else another producer took p; try again
+	}
+    }
+
+    /**
+     * Take the next event. Only the game loop thread may call this.
+     *
+     * @return The packed event, or 0 if the queue is empty
+     */
+    public long poll() {
+	int slot=(int)head&mask;
+	if (sequence.get(slot)!=head+1) return 0;
+	long event=events[slot];
+	// free the slot for the producer one lap on
+	sequence.set(slot, head+mask+1);
+	head++;
+	return event;
+    }
+
+    /** @return Events dropped because the queue was full */
+    public long getDropped() {
+	return dropped.get();
+    }
+
+    public static int type(long event) {
+	return (int)(event>>>56);
+    }
+
+    public static int code(long event) {
+	return (int)(event>>>32)&0xffffff;
+    }
+
+    /** @return The key char, or the mouse x */
+    public static int a(long event) {
+	return (short)(event>>>16);
+    }
+
+    /** @return The mouse y */
+    public static int b(long event) {
+	return (short)event;
+    }
+
+    private static long pack(int type, int code, int a, int b) {
+	return ((long)type<<56)|((long)(code&0xffffff)<<32)|((long)(a&0xffff)<<16)|(b&0xffff);
+    }
+}
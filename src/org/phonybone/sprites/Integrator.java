@@ -0,0 +1,31 @@
+package org.phonybone.sprites;
+
+/**
+ * Advances a BodyStore through time, calling a ForceEngine for the
+ * accelerations. dt is in seconds throughout: a force F changes a
+ * body's velocity by F/m*dt.
+ *
+ * @see EulerIntegrator
+ * @see LeapfrogIntegrator
+ * @see RK4Integrator
+ */
+public interface Integrator {
+    /**
+     * Prepare to integrate these bodies. Called before the first step,
+     * and again whenever bodies have been added, removed or moved by
+     * something other than this integrator.
+     */
+    public void start(BodyStore bodies, ForceEngine engine);
+
+    /**
+     * Advance the bodies by dt seconds
+     */
+    public void step(BodyStore bodies, ForceEngine engine, double dt);
+
+    /**
+     * @return The number of force evaluations one step costs
+     */
+    public int getForceEvaluations();
+
+    public String getName();
+}
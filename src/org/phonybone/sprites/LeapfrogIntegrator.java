@@ -0,0 +1,31 @@
+package org.phonybone.sprites;
+
+/**
+ * Second order symplectic leapfrog in kick-drift-kick form, which is
+ * the same thing as velocity Verlet. The forces at the end of a step
+ * are the forces at the start of the next, so each step costs a single
+ * force evaluation, yet energy errors stay bounded instead of growing:
+ * orbits survive far larger steps than with Euler.
+ */
+public class LeapfrogIntegrator extends AbstractIntegrator {
+
+    /** Compute the forces the first half kick needs */
+    public void start(BodyStore bodies, ForceEngine engine) {
+	engine.sumForces(bodies);
+    }
+
+    public void step(BodyStore bodies, ForceEngine engine, double dt) {
+	kick(bodies, engine, dt/2);
+	drift(bodies, engine, dt);
+	engine.sumForces(bodies);
+	kick(bodies, engine, dt/2);
+    }
+
+    public int getForceEvaluations() {
+	return 1;
+    }
+
+    public String getName() {
+	return "leapfrog";
+    }
+}
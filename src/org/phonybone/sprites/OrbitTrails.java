@@ -0,0 +1,171 @@
+package org.phonybone.sprites;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Stroke;
+import java.awt.geom.Path2D;
+
+/**
+ * The recent paths of the bodies in a BodyStore, drawn behind them.
+ * <p>
+ * Each body has a ring of its last few positions, kept in two float
+ * arrays shared by all the bodies (body i's ring is the slots from
+ * i*length), so there's no object per point and nothing is allocated
+ * once the arrays have grown. A position is only added once the body
+ * is minDistance from the last one kept: slow bodies keep a long
+ * history, fast ones a coarse one, and a body sitting still doesn't
+ * wash its trail out with copies of one point.
+ * <p>
+ * Drawing builds a few Path2Ds, each holding one age band of every
+ * trail (the oldest points in the dimmest), and strokes each once:
+ * a handful of draw calls however many bodies there are.
+ */
+public class OrbitTrails {
+    /** Age bands, each drawn in its own shade */
+    private static final int BANDS=4;
+
+    private int length;
+    private double minDistance2;
+    private Color[] colors=new Color[BANDS];
+    private Path2D.Float[] paths=new Path2D.Float[BANDS];
+    private Stroke stroke=new BasicStroke(1);
+
+    // body i's ring is xs/ys[i*length .. i*length+length-1]; head[i] is
+    // where its next point goes, count[i] how many it has
+    private int bodies;
+    private float[] xs=new float[0], ys=new float[0];
+    private int[] head=new int[0], count=new int[0];
+    private int points;
+
+    /**
+     * @param length The most points kept per body
+     * @param minDistance How far a body must move before a new point
+     *        is kept, in world units
+     * @param color The color of the newest part of the trails
+     */
+    public OrbitTrails(int length, double minDistance, Color color) {
+	this.length=Math.max(length, 2);
+	this.minDistance2=minDistance*minDistance;
+	for (int b=0; b<BANDS; b++) {
+	    // faded toward the black of space rather than translucent:
+	    // blending makes Java2D rasterize through coverage masks,
+	    // several times slower than the plain line loops
+	    int f=b+1, d=BANDS+1;
+	    colors[b]=new Color(color.getRed()*f/d, color.getGreen()*f/d, color.getBlue()*f/d);
+	    paths[b]=new Path2D.Float(Path2D.WIND_NON_ZERO, 1024);
+	}
+    }
+
+    /**
+     * Take the bodies' current positions, keeping those that have
+     * moved far enough
+     */
+    public void update(BodyStore store) {
+	int n=store.size();
+	if (n!=bodies) resize(n);
+	double[] x=store.x, y=store.y;
+	for (int i=0; i<n; i++) {
+	    int c=count[i];
+	    if (c>0) {
+		int last=i*length+(head[i]+length-1)%length;
+		double dx=x[i]-xs[last], dy=y[i]-ys[last];
+		if (dx*dx+dy*dy<minDistance2) continue;
+	    }
+	    int at=i*length+head[i];
+	    xs[at]=(float)x[i];
+	    ys[at]=(float)y[i];
+	    head[i]=(head[i]+1)%length;
+	    if (c<length) {
+		count[i]=c+1;
+		points++;
+	    }
+	}
+    }
+
+    /** Forget every trail, e.g. when the bodies jump */
+    public void clear() {
+	for (int i=0; i<bodies; i++) {
+	    head[i]=0;
+	    count[i]=0;
+	}
+	points=0;
+    }
+
+    /** @return The number of points held over all the trails */
+    public int getPointCount() {
+	return points;
+    }
+
+    /**
+     * Draw the trails, in world coordinates, each running up to its
+     * body's current position
+     */
+    public void draw(Graphics2D g, BodyStore store) {
+	int n=Math.min(bodies, store.size());
+	for (int b=0; b<BANDS; b++) paths[b].reset();
+	for (int i=0; i<n; i++) {
+	    int c=count[i];
+	    if (c==0) continue;
+	    int base=i*length;
+	    int first=(head[i]+length-c)%length;
+	    // point k of c (oldest first) goes in band k*BANDS/c; the bands
+	    // share their end points so the trail is unbroken
+	    float px=xs[base+first], py=ys[base+first];
+	    int band=-1;
+	    for (int k=1; k<=c; k++) {
+		float qx, qy;
+		if (k<c) {
+		    int at=base+(first+k)%length;
+		    qx=xs[at];
+		    qy=ys[at];
+		} else {
+		    qx=(float)store.x[i];
+		    qy=(float)store.y[i];
+		}
+		int b=(k-1)*BANDS/c;
+		if (b!=band) {
+		    paths[b].moveTo(px, py);
+		    band=b;
+		}
+		paths[b].lineTo(qx, qy);
+		px=qx;
+		py=qy;
+	    }
+	}
+
+	Stroke oldStroke=g.getStroke();
+	Object oldAA=g.getRenderingHint(RenderingHints.KEY_ANTIALIASING);
+	g.setStroke(stroke);
+	g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+	for (int b=0; b<BANDS; b++) {
+	    g.setColor(colors[b]);
+	    g.draw(paths[b]);
+	}
+	g.setStroke(oldStroke);
+	if (oldAA!=null) g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, oldAA);
+    }
+
+    // a new number of bodies: keep the trails of those still there
+    private void resize(int n) {
+	if (head.length<n) {
+	    int cap=Math.max(n, 2*head.length);
+	    float[] nx=new float[cap*length], ny=new float[cap*length];
+	    System.arraycopy(xs, 0, nx, 0, xs.length);
+	    System.arraycopy(ys, 0, ny, 0, ys.length);
+	    xs=nx;
+	    ys=ny;
+	    int[] nh=new int[cap], nc=new int[cap];
+	    System.arraycopy(head, 0, nh, 0, head.length);
+	    System.arraycopy(count, 0, nc, 0, count.length);
+	    head=nh;
+	    count=nc;
+	}
+	for (int i=n; i<bodies; i++) {
+	    points-=count[i];
+	    head[i]=0;
+	    count[i]=0;
+	}
+	bodies=n;
+    }
+}
@@ -0,0 +1,20 @@
+package org.phonybone.sprites;
+
+/**
+ * The exact force engine: sums every pair of planets. O(n^2), but
+ * the reference against which the approximate engines are measured.
+ */
+public class PairwiseForceEngine implements PartialForceEngine {
+
+    public void sumForces(BodyStore bodies) {
+	bodies.sumForces2d();
+    }
+
+    public void sumForces(BodyStore bodies, int[] active, int count) {
+	GravityKernel.sumForcesOn(bodies.x, bodies.y, bodies.mass, bodies.fx, bodies.fy, bodies.size(), active, count, bodies.getSoftening());
+    }
+
+    public String getName() {
+	return "pairwise";
+    }
+}
@@ -0,0 +1,165 @@
+package org.phonybone.sprites;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Exact pairwise forces computed on several cores with a ForkJoinPool.
+ * <p>
+ * The triangle of pairs (i,j<i) is cut into one row block per thread,
+ * sized so every block holds about the same number of pairs. Each
+ * block sums into its own force buffer, so no locks are needed, and
+ * the buffers are then added together in block order. Since the
+ * blocks and the order of every addition depend only on the thread
+ * count, results are bit-identical from run to run for a given
+ * thread count (and within rounding of PairwiseForceEngine).
+ * <p>
+ * The engine can also run the kick/drift passes over its pool.
+ */
+public class ParallelForceEngine implements ForceEngine {
+    private int threads;
+    private ForkJoinPool pool;
+    /** One force buffer pair per block, grown as needed */
+    private double[][] bufX, bufY;
+    /** Row boundaries: block k owns rows [bounds[k],bounds[k+1]) */
+    private int[] bounds;
+
+    public ParallelForceEngine() {
+	this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParallelForceEngine(int threads) {
+	if (threads<1) throw new IllegalArgumentException("threads must be >= 1: "+threads);
+	this.threads=threads;
+	this.pool=new ForkJoinPool(threads);
+	this.bufX=new double[threads][0];
+	this.bufY=new double[threads][0];
+	this.bounds=new int[threads+1];
+    }
+
+    public int getThreads() {
+	return threads;
+    }
+
+    public String getName() {
+	return "parallel(threads="+threads+")";
+    }
+
+    public void sumForces(BodyStore bodies) {
+	int n=bodies.size();
+	// Block k ends where the pair count reaches k/threads of the total
+	for (int k=0; k<=threads; k++) {
+	    bounds[k]=(int)Math.round(n*Math.sqrt((double)k/threads));
+	}
+	bounds[threads]=n;
+	for (int k=0; k<threads; k++) {
+	    if (bufX[k].length<n) {
+		bufX[k]=new double[n];
+		bufY[k]=new double[n];
+	    }
+	}
+
+	pool.invoke(new Split(new BlockTask(bodies), 0, threads));
+	pool.invoke(new Split(new ReduceTask(bodies), 0, threads));
+    }
+
+    /**
+     * BodyStore.kick, spreading the work over the pool
+     */
+    public void kick(final BodyStore bodies, final double dt) {
+	final int n=bodies.size();
+	pool.invoke(new Split(new Task() {
+		public void run(int k) {
+		    bodies.kick(k*n/threads, (k+1)*n/threads, dt);
+		}
+	    }, 0, threads));
+    }
+
+    /**
+     * BodyStore.drift, spreading the work over the pool
+     */
+    public void drift(final BodyStore bodies, final double dt) {
+	final int n=bodies.size();
+	pool.invoke(new Split(new Task() {
+		public void run(int k) {
+		    bodies.drift(k*n/threads, (k+1)*n/threads, dt);
+		}
+	    }, 0, threads));
+    }
+
+    public void shutdown() {
+	pool.shutdown();
+    }
+
+    /** A unit of work indexed by block number */
+    private interface Task {
+	public void run(int k);
+    }
+
+    /** Sum the pairs of block k into its private buffer */
+    private class BlockTask implements Task {
+	private BodyStore bodies;
+
+	BlockTask(BodyStore bodies) {
+	    this.bodies=bodies;
+	}
+
+	public void run(int k) {
+	    int from=bounds[k], to=bounds[k+1];
+	    double[] fx=bufX[k], fy=bufY[k];
+	    for (int i=0; i<to; i++) {
+		fx[i]=0;
+		fy[i]=0;
+	    }
+	    GravityKernel.sumRows(bodies.x, bodies.y, bodies.mass, fx, fy, from, to, bodies.getSoftening());
+	}
+    }
+
+    /** Add up the buffers, in block order, for the k'th slice of bodies */
+    private class ReduceTask implements Task {
+	private BodyStore bodies;
+
+	ReduceTask(BodyStore bodies) {
+	    this.bodies=bodies;
+	}
+
+	public void run(int k) {
+	    int n=bodies.size();
+	    int from=k*n/threads, to=(k+1)*n/threads;
+	    double[] fx=bodies.fx, fy=bodies.fy;
+	    for (int i=from; i<to; i++) {
+		double sx=0, sy=0;
+		for (int b=0; b<threads; b++) {
+		    // block b only wrote entries below its last row
+		    if (i<bounds[b+1]) {
+			sx+=bufX[b][i];
+			sy+=bufY[b][i];
+		    }
+		}
+		fx[i]=sx;
+		fy[i]=sy;
+	    }
+	}
+    }
+
+    /** Fork a task over blocks [lo,hi) by recursive halving */
+    private static class Split extends RecursiveAction {
+	private static final long serialVersionUID=1L;
+	private Task task;
+	private int lo, hi;
+
+	Split(Task task, int lo, int hi) {
+	    this.task=task;
+	    this.lo=lo;
+	    this.hi=hi;
+	}
+
+	protected void compute() {
+	    if (hi-lo==1) {
+		task.run(lo);
+		return;
+	    }
+	    int mid=(lo+hi)>>>1;
+	    invokeAll(new Split(task, lo, mid), new Split(task, mid, hi));
+	}
+    }
+}
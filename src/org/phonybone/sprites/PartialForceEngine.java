@@ -0,0 +1,15 @@
+package org.phonybone.sprites;
+
+/**
+ * A ForceEngine that can compute the forces on just some of the
+ * bodies (still from all of them), so an integrator that only needs a
+ * few bodies' forces at a time, like BlockTimestepIntegrator, needn't
+ * pay for the rest.
+ */
+public interface PartialForceEngine extends ForceEngine {
+    /**
+     * Overwrite the forces on bodies active[0..count), summed over every
+     * body in the store. Other bodies' forces are left alone.
+     */
+    public void sumForces(BodyStore bodies, int[] active, int count);
+}
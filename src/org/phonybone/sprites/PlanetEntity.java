@@ -13,34 +13,45 @@ import java.util.ArrayList;
   - allow start/stop
   - allow keyboard quit
   add more planets
-  add options to show traces
   fix ArrayList warnings?
   
  */
 
+/**
+ * A planet is a view over one body in a BodyStore: its position,
+ * velocity, mass and force live in the store's arrays, and only the
+ * presentation (name, color) lives here. The Entity x/y/dx/dy fields
+ * are not used.
+ */
 public class PlanetEntity extends Entity {
     private Game game;
     private String name;
-    private double mass;
-    private final double G=6.67428e-2;	// m^3 * kg^-1 * sec^-2
-    private double fx,fy;		// force acting on planet
+    static final double G=BodyStore.G;	// m^3 * kg^-1 * sec^-2
     private Color color;
+    /** The store holding our state, and our index into it */
+    private BodyStore store;
+    private int index;
 
-    public PlanetEntity(Game game,String name, int x,int y, double dx, double dy, double mass, Color color) {
+    public PlanetEntity(Game game,BodyStore store,String name, int x,int y, double dx, double dy, double mass, Color color) {
 	super(x,y);
 		
 	this.game = game;
 	this.name=name;
-	this.dx=dx;
-	this.dy=dy;
-	this.mass=mass;
 	this.color=color;
+	this.store=store;
+	this.index=store.add(x,y,dx,dy,mass);
+	store.views[index]=this;
+    }
+
+    // A planet with a private store, for one-off use
+    public PlanetEntity(Game game,String name, int x,int y, double dx, double dy, double mass, Color color) {
+	this(game,new BodyStore(1),name,x,y,dx,dy,mass,color);
     }
 
     public void draw(Graphics g) {
-	int radius=(int) Math.min(Math.max(Math.pow(this.mass,1.0/3.0),4.0),20.0);
+	int radius=getWidth();
 	g.setColor(this.color);
-	g.fillArc((int)this.x, (int)this.y, radius, radius, 0, 360);
+	g.fillArc(getX(), getY(), radius, radius, 0, 360);
 
 	// draw the force vector:
 	if (this.name=="Earth") {
@@ -50,8 +61,13 @@ public class PlanetEntity extends Entity {
     }
 	
     // return the gravitation force vector between two planets (as a double[2])
+    // This is the original, allocating path; the force loops use GravityKernel.
+    // Softened as our store's forces are, if they are.
     public double[] gForce2d(PlanetEntity p2) {
-	double f=-G*this.mass*p2.mass/distance2d(p2);
+	double r2=distance2d(p2);
+	Softening soft=store.getSoftening();
+	double f= soft==null ? -G*getMass()*p2.getMass()/r2
+	    : -G*getMass()*p2.getMass()*Math.sqrt(r2)*soft.inverseCube(r2);
 	double[] f2d= new double[2];
 	double theta=this.angle2d(p2);
 	f2d[0]=f*java.lang.Math.cos(theta);
@@ -61,30 +77,20 @@ public class PlanetEntity extends Entity {
 	
     // return the square of the distance between two planets
     public double distance2d(PlanetEntity p2) {
-	double ddx=this.x-p2.x;
-	double ddy=this.y-p2.y;
+	double ddx=getPositionX()-p2.getPositionX();
+	double ddy=getPositionY()-p2.getPositionY();
 	return ((ddx*ddx)+(ddy*ddy));
     }
 
     // return the angle (in radians) between the two planet's location:
     public double angle2d(PlanetEntity p2){
-	double x=(this.x-p2.x);
-	double y=(this.y-p2.y);
-	if (x==0) return y>0? Math.PI/2 : Math.PI*3/2;
-
-	double theta=Math.atan(y/x);
-
-	if (x>0) {
-	    if (y>0) return theta;	 // quad 1
-	    else return Math.PI*2+theta; // quad 4
-	} else {	       
-	    return  Math.PI+theta; // quads 2&3
-	}
+	return BodyStore.angle2d(getPositionX()-p2.getPositionX(), getPositionY()-p2.getPositionY());
     }
 	
     public String toString() {
 	return String.format("%s: mass=%g x=%.0f y=%.0f dx=%.2f dy=%.2f fx=%.2g fy=%.2g",
-			     this.name, this.mass, this.x, this.y, this.dx, this.dy, this.fx, this.fy);
+			     this.name, getMass(), getPositionX(), getPositionY(),
+			     getHorizontalMovement(), getVerticalMovement(), getForceX(), getForceY());
     }
 
     public static void sumForces2d(ArrayList planets) {
@@ -93,30 +99,25 @@ public class PlanetEntity extends Entity {
 	// Clear all forces
 	for (i=0; i<n_planets; i++){
 	    PlanetEntity p=(PlanetEntity)planets.get(i);
-	    p.fx=0; p.fy=0;
+	    p.setForce(0,0);
 	}
 	for (i=0; i<n_planets; i++){
 	    for (j=0; j<i; j++){
 		PlanetEntity pi=(PlanetEntity)planets.get(i);
 		PlanetEntity pj=(PlanetEntity)planets.get(j);
 		double[] f2d=pi.gForce2d(pj);
-		pi.fx+=f2d[0];
-		pi.fy+=f2d[1];
-		pj.fx-=f2d[0];
-		pj.fy-=f2d[1];
+		pi.setForce(pi.getForceX()+f2d[0], pi.getForceY()+f2d[1]);
+		pj.setForce(pj.getForceX()-f2d[0], pj.getForceY()-f2d[1]);
 	    }
 	}
     }
 
     public void move(long delta) {
-	double ax=this.fx/this.mass;
-	double ay=this.fy/this.mass;
-	this.dx+=ax;
-	this.dy+=ay;
-	this.x+=this.dx*delta/1000;
-	this.y+=this.dy*delta/1000;
+	store.move(index,delta/1000.0);
     }
 
+    // planets don't collide with sprites; bodies that come too close
+    // are merged by a BodyMerger as the simulation steps
     public boolean collidesWith(Entity other) {
 	return false;
     }
@@ -125,11 +126,11 @@ public class PlanetEntity extends Entity {
 	// Yeah yeah whatever
     }
 
-    public static ArrayList init_planets(Game game) {
-	PlanetEntity sun=  new PlanetEntity(game,"Sun",  400,300, 0, 0, 10000, Color.yellow);
-	PlanetEntity earth=new PlanetEntity(game,"Earth",500,300 ,0,15,    10, Color.blue);
+    public static ArrayList init_planets(Game game, BodyStore store) {
+	PlanetEntity sun=  new PlanetEntity(game,store,"Sun",  400,300, 0, 0, 10000, Color.yellow);
+	PlanetEntity earth=new PlanetEntity(game,store,"Earth",500,300 ,0,15,    10, Color.blue);
 	earth.orbit(sun);
-	PlanetEntity moon= new PlanetEntity(game,"Moon" ,500,304 ,0,15,     2, Color.gray);
+	PlanetEntity moon= new PlanetEntity(game,store,"Moon" ,500,304 ,0,15,     2, Color.gray);
 	moon.orbit(earth);
 
 	ArrayList planets=new ArrayList();
@@ -140,21 +141,95 @@ public class PlanetEntity extends Entity {
     }
 
     // Set the velocity vector such that it corresponds to a stable orbit 
-    // around a second planet (gravity cancels centripital force)
+    // around a second planet (gravity cancels centripital force). The
+    // orbital velocity is perpendicular to the line between the two,
+    // on top of whatever velocity p2 already has.
     public PlanetEntity orbit(PlanetEntity p2) {
 	double r=Math.sqrt(this.distance2d(p2));
-	double vm=Math.sqrt(G*p2.mass/r);
+	double vm=Math.sqrt(G*p2.getMass()/r);
 	double theta=this.angle2d(p2);
-	this.dx=vm*Math.cos(theta);
-	this.dy=vm*Math.sin(theta); 
+	store.setVelocity(index,
+			  p2.getHorizontalMovement()-vm*Math.sin(theta),
+			  p2.getVerticalMovement()+vm*Math.cos(theta));
 	return this;
     }
 
+    public BodyStore getStore() {
+	return store;
+    }
+
+    /** @return Our index in the store, or -1 once we've been removed from it */
+    public int getIndex() {
+	return index;
+    }
+
+    /** @return False once our body has been removed from the store, e.g. merged */
+    public boolean isAlive() {
+	return index>=0;
+    }
+
+    // the store moved our body to index i
+    void moveTo(int i) {
+	index=i;
+    }
+
+    // the store removed our body
+    void detach() {
+	index=-1;
+    }
+
+    public String getName() {
+	return name;
+    }
+
+    public double getMass() {
+	return store.getMass(index);
+    }
+
+    public double getPositionX() {
+	return store.getX(index);
+    }
+    public double getPositionY() {
+	return store.getY(index);
+    }
+
+    public double getForceX() {
+	return store.getForceX(index);
+    }
+    public double getForceY() {
+	return store.getForceY(index);
+    }
+
+    void setForce(double fx, double fy) {
+	store.setForce(index,fx,fy);
+    }
+
+    public int getX() {
+	return (int) store.getX(index);
+    }
+    public int getY() {
+	return (int) store.getY(index);
+    }
+
+    public double getHorizontalMovement() {
+	return store.getVx(index);
+    }
+    public double getVerticalMovement() {
+	return store.getVy(index);
+    }
+    public void setHorizontalMovement(double dx) {
+	store.setVelocity(index, dx, store.getVy(index));
+    }
+    public void setVerticalMovement(double dy) {
+	store.setVelocity(index, store.getVx(index), dy);
+    }
+
+    // the size drawn, so culling and the broad phase see the whole disc
     public int getWidth() {
-	return 1;
+	return (int) Math.min(Math.max(Math.pow(getMass(),1.0/3.0),4.0),20.0);
     }
     public int getHeight() {
-	return 1;
+	return getWidth();
     }
 }
 
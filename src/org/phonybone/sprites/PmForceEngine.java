@@ -0,0 +1,297 @@
+package org.phonybone.sprites;
+
+/**
+ * Particle-mesh force engine, for dense clouds of many light bodies
+ * where the far field matters and individual close pairs don't.
+ * <p>
+ * Each step the bounding square is covered by a grid x grid mesh and
+ * every body's mass is shared among the four mesh points around it
+ * (cloud-in-cell). The field on the mesh is the convolution of that
+ * mass with the pairwise force, -d/|d|^3 between mesh points, done as
+ * a product of FFTs; the mesh is padded to twice its size so the far
+ * side of the cloud doesn't wrap round (the bodies are in empty space,
+ * not a periodic box). The force on each body is read back from the
+ * same four mesh points. One complex FFT each way does both force
+ * components, since the field is real: the x kernel goes in the real
+ * part and the y kernel in the imaginary part. The work is
+ * O(n + grid^2 log grid).
+ * <p>
+ * The mesh smears out forces over a couple of mesh spacings. With
+ * near>0 (P3M) the pairs of bodies within 'near' cells of each other
+ * get their mesh force taken off and the exact pairwise force put on
+ * instead, so close neighbours feel each other properly. The mesh
+ * force between two bodies is a sum over their CIC weights, so it can
+ * be taken off exactly. The store's Softening applies to these exact
+ * pairs; the mesh is already soft on the scale of a cell.
+ * <p>
+ * On a random cloud of 20k bodies, where close pairs dominate, the
+ * mesh alone is out by about the whole force, while P3M on a 64 mesh
+ * is within 1.4e-2 RMS with near=2 and 6e-3 with near=3 (see
+ * ForceError). A million bodies take 0.2s on a 512 mesh, 1.2s with
+ * near=1.
+ */
+public class PmForceEngine implements ForceEngine {
+    private int grid;
+    private int near;
+    private int size;	// the padded mesh, 2*grid
+    private Fft fft;
+
+    // the mesh, and the transform of the force kernel (x+iy)
+    private double[] re, im;
+    private double[] kr, ki;
+    private double[] colRe, colIm;
+    // the kernel between mesh points up to near+1 apart, for P3M
+    private int span;
+    private double[] nearKx, nearKy;
+
+    // each body's cell (the mesh point below and left of it) and its
+    // offset within the cell, 0..1
+    private int[] cellX=new int[0], cellY=new int[0];
+    private double[] offX=new double[0], offY=new double[0];
+    // bodies by cell, for P3M, and their state in that order
+    private int[] cellStart=new int[0], cellBodies=new int[0];
+    private double[] sx=new double[0], sy=new double[0], sm=new double[0];
+    private double[] sox=new double[0], soy=new double[0];
+    private double[] sfx=new double[0], sfy=new double[0];
+    private double[] wa=new double[4];
+
+    public PmForceEngine(int grid) {
+	this(grid, 0);
+    }
+
+    /**
+     * @param grid Mesh points along each side, a power of two
+     * @param near Cells within which pairs are summed exactly (P3M),
+     *        or 0 for the mesh alone
+     */
+    public PmForceEngine(int grid, int near) {
+	if (grid<4 || (grid&(grid-1))!=0) throw new IllegalArgumentException("grid must be a power of two >= 4: "+grid);
+	if (near<0) throw new IllegalArgumentException("near must be >= 0: "+near);
+	this.grid=grid;
+	this.near=near;
+	size=2*grid;
+	fft=new Fft(size);
+	re=new double[size*size];
+	im=new double[size*size];
+	colRe=new double[size];
+	colIm=new double[size];
+	buildKernel();
+    }
+
+    public String getName() {
+	if (near==0) return "pm(grid="+grid+")";
+	return "p3m(grid="+grid+",near="+near+")";
+    }
+
+    public void sumForces(BodyStore bodies) {
+	int n=bodies.size();
+	if (n<2) {
+	    for (int i=0; i<n; i++) {
+		bodies.fx[i]=0;
+		bodies.fy[i]=0;
+	    }
+	    return;
+	}
+	double[] x=bodies.x, y=bodies.y, m=bodies.mass;
+	double[] fx=bodies.fx, fy=bodies.fy;
+
+	double minx=x[0], maxx=x[0], miny=y[0], maxy=y[0];
+	for (int i=1; i<n; i++) {
+	    if (x[i]<minx) minx=x[i];
+	    if (x[i]>maxx) maxx=x[i];
+	    if (y[i]<miny) miny=y[i];
+	    if (y[i]>maxy) maxy=y[i];
+	}
+	double h=Math.max(maxx-minx, maxy-miny)*1.0001/(grid-1);
+	if (h==0) h=1;
+
+	// deposit the masses
+	if (cellX.length<n) {
+	    cellX=new int[n];
+	    cellY=new int[n];
+	    offX=new double[n];
+	    offY=new double[n];
+	}
+	java.util.Arrays.fill(re, 0);
+	java.util.Arrays.fill(im, 0);
+	for (int i=0; i<n; i++) {
+	    double gx=(x[i]-minx)/h, gy=(y[i]-miny)/h;
+	    int cx=Math.min((int)gx, grid-2), cy=Math.min((int)gy, grid-2);
+	    double ox=gx-cx, oy=gy-cy;
+	    cellX[i]=cx;
+	    cellY[i]=cy;
+	    offX[i]=ox;
+	    offY[i]=oy;
+	    int k=cy*size+cx;
+	    re[k]+=m[i]*(1-ox)*(1-oy);
+	    re[k+1]+=m[i]*ox*(1-oy);
+	    re[k+size]+=m[i]*(1-ox)*oy;
+	    re[k+size+1]+=m[i]*ox*oy;
+	}
+
+	// convolve with the kernel
+	transform(false, grid);
+	for (int k=0; k<re.length; k++) {
+	    double a=re[k], b=im[k];
+	    re[k]=a*kr[k]-b*ki[k];
+	    im[k]=a*ki[k]+b*kr[k];
+	}
+	transform(true, grid);
+
+	// read the field back at the bodies; the transforms scaled it by
+	// size^2, and the kernel was for unit spacing
+	double scale=BodyStore.G/((double)size*size*h*h);
+	for (int i=0; i<n; i++) {
+	    double ox=offX[i], oy=offY[i];
+	    int k=cellY[i]*size+cellX[i];
+	    double w00=(1-ox)*(1-oy), w10=ox*(1-oy), w01=(1-ox)*oy, w11=ox*oy;
+	    double sx=w00*re[k]+w10*re[k+1]+w01*re[k+size]+w11*re[k+size+1];
+	    double sy=w00*im[k]+w10*im[k+1]+w01*im[k+size]+w11*im[k+size+1];
+	    fx[i]=scale*m[i]*sx;
+	    fy[i]=scale*m[i]*sy;
+	}
+
+	if (near>0) correct(bodies, h);
+    }
+
+    /*
+     * P3M: swap the mesh force for the exact one between bodies within
+     * 'near' cells of each other
+     */
+    private void correct(BodyStore bodies, double h) {
+	int n=bodies.size();
+	Softening softening=bodies.getSoftening();
+	int cells=grid*grid;
+	if (cellStart.length<cells+1) cellStart=new int[cells+1];
+	if (sx.length<n) {
+	    cellBodies=new int[n];
+	    sx=new double[n];
+	    sy=new double[n];
+	    sm=new double[n];
+	    sox=new double[n];
+	    soy=new double[n];
+	    sfx=new double[n];
+	    sfy=new double[n];
+	}
+	// sort by cell, copying what the pair loop reads so that
+	// neighbours sit together in memory
+	java.util.Arrays.fill(cellStart, 0, cells+1, 0);
+	for (int i=0; i<n; i++) cellStart[cellY[i]*grid+cellX[i]+1]++;
+	for (int c=0; c<cells; c++) cellStart[c+1]+=cellStart[c];
+	for (int i=0; i<n; i++) {
+	    int k=cellStart[cellY[i]*grid+cellX[i]]++;
+	    cellBodies[k]=i;
+	    sx[k]=bodies.x[i];
+	    sy[k]=bodies.y[i];
+	    sm[k]=bodies.mass[i];
+	    sox[k]=offX[i];
+	    soy[k]=offY[i];
+	    sfx[k]=0;
+	    sfy[k]=0;
+	}
+	for (int c=cells; c>0; c--) cellStart[c]=cellStart[c-1];
+	cellStart[0]=0;
+
+	double scale=BodyStore.G/(h*h);
+	for (int cy=0; cy<grid-1; cy++) {
+	    for (int cx=0; cx<grid-1; cx++) {
+		int from=cellStart[cy*grid+cx], to=cellStart[cy*grid+cx+1];
+		for (int p=from; p<to; p++) {
+		    double ox=sox[p], oy=soy[p];
+		    wa[0]=(1-ox)*(1-oy);
+		    wa[1]=ox*(1-oy);
+		    wa[2]=(1-ox)*oy;
+		    wa[3]=ox*oy;
+		    for (int by=Math.max(cy-near, 0); by<=Math.min(cy+near, grid-2); by++) {
+			for (int bx=Math.max(cx-near, 0); bx<=Math.min(cx+near, grid-2); bx++) {
+			    int c=by*grid+bx;
+			    // each pair once: q after p in sorted order
+			    for (int q=Math.max(cellStart[c], p+1); q<cellStart[c+1]; q++) {
+				if (sx[p]!=sx[q] || sy[p]!=sy[q]) GravityKernel.pair(sx, sy, sm, sfx, sfy, p, q, softening);
+
+				// the mesh's force on p from q, from the CIC
+				// weights of both; q feels the opposite
+				double qx=sox[q], qy=soy[q];
+				double mx=0, my=0;
+				for (int b=0; b<4; b++) {
+				    double wb=((b&1)!=0 ? qx : 1-qx)*((b&2)!=0 ? qy : 1-qy);
+				    int t0=(cy-by-(b>>1)+near+1)*span+(cx-bx-(b&1)+near+1);
+				    mx+=wb*(wa[0]*nearKx[t0]+wa[1]*nearKx[t0+1]+wa[2]*nearKx[t0+span]+wa[3]*nearKx[t0+span+1]);
+				    my+=wb*(wa[0]*nearKy[t0]+wa[1]*nearKy[t0+1]+wa[2]*nearKy[t0+span]+wa[3]*nearKy[t0+span+1]);
+				}
+				double f=scale*sm[p]*sm[q];
+				sfx[p]-=f*mx;
+				sfy[p]-=f*my;
+				sfx[q]+=f*mx;
+				sfy[q]+=f*my;
+			    }
+			}
+		    }
+		}
+	    }
+	}
+	double[] fx=bodies.fx, fy=bodies.fy;
+	for (int k=0; k<n; k++) {
+	    fx[cellBodies[k]]+=sfx[k];
+	    fy[cellBodies[k]]+=sfy[k];
+	}
+    }
+
+    /*
+     * The kernel -d/|d|^3 at every mesh offset (wrapped round the
+     * padded mesh), transformed; and the few offsets P3M needs
+     */
+    private void buildKernel() {
+	for (int dy=-(grid-1); dy<grid; dy++) {
+	    for (int dx=-(grid-1); dx<grid; dx++) {
+		if (dx==0 && dy==0) continue;
+		int k=((dy+size)%size)*size+(dx+size)%size;
+		double r2=dx*dx+dy*dy;
+		double inv3=1/(r2*Math.sqrt(r2));
+		re[k]=-dx*inv3;
+		im[k]=-dy*inv3;
+	    }
+	}
+	transform(false, size);
+	kr=re.clone();
+	ki=im.clone();
+
+	span=2*(near+1)+1;
+	nearKx=new double[span*span];
+	nearKy=new double[span*span];
+	for (int dy=-(near+1); dy<=near+1; dy++) {
+	    for (int dx=-(near+1); dx<=near+1; dx++) {
+		if (dx==0 && dy==0) continue;
+		double r2=dx*dx+dy*dy;
+		double inv3=1/(r2*Math.sqrt(r2));
+		int t=(dy+near+1)*span+(dx+near+1);
+		nearKx[t]=-dx*inv3;
+		nearKy[t]=-dy*inv3;
+	    }
+	}
+    }
+
+    /*
+     * 2D transform of re/im, of which only the first 'rows' rows are
+     * non-zero (forward) or wanted (inverse)
+     */
+    private void transform(boolean inverse, int rows) {
+	if (!inverse) {
+	    for (int r=0; r<rows; r++) fft.transform(re, im, r*size, false);
+	}
+	for (int c=0; c<size; c++) {
+	    for (int r=0; r<size; r++) {
+		colRe[r]=re[r*size+c];
+		colIm[r]=im[r*size+c];
+	    }
+	    fft.transform(colRe, colIm, 0, inverse);
+	    for (int r=0; r<size; r++) {
+		re[r*size+c]=colRe[r];
+		im[r*size+c]=colIm[r];
+	    }
+	}
+	if (inverse) {
+	    for (int r=0; r<rows; r++) fft.transform(re, im, r*size, true);
+	}
+    }
+}
@@ -0,0 +1,86 @@
+package org.phonybone.sprites;
+
+/**
+ * Classic fourth order Runge-Kutta. Very accurate for a given step but
+ * not symplectic, and it costs four force evaluations per step.
+ * <p>
+ * The intermediate states are evaluated by moving the store's own
+ * positions, so any ForceEngine works unchanged; the start of the step
+ * is kept in scratch arrays which are reused from step to step.
+ */
+public class RK4Integrator extends AbstractIntegrator {
+    // start of step
+    private double[] x0=new double[0], y0=new double[0], vx0=new double[0], vy0=new double[0];
+    // running weighted sums of the position and velocity slopes
+    private double[] sx=new double[0], sy=new double[0], svx=new double[0], svy=new double[0];
+
+    public void step(BodyStore bodies, ForceEngine engine, double dt) {
+	int n=bodies.size();
+	ensureCapacity(n);
+	double[] x=bodies.x, y=bodies.y, vx=bodies.vx, vy=bodies.vy;
+	double[] m=bodies.mass, fx=bodies.fx, fy=bodies.fy;
+
+	System.arraycopy(x, 0, x0, 0, n);
+	System.arraycopy(y, 0, y0, 0, n);
+	System.arraycopy(vx, 0, vx0, 0, n);
+	System.arraycopy(vy, 0, vy0, 0, n);
+
+	// k1 at the start; vx/vy hold each stage's velocity slope
+	engine.sumForces(bodies);
+	for (int i=0; i<n; i++) {
+	    sx[i]=vx[i];
+	    sy[i]=vy[i];
+	    svx[i]=fx[i]/m[i];
+	    svy[i]=fy[i]/m[i];
+	}
+
+	// k2 and k3 at the midpoint (weight 2), k4 at the end (weight 1),
+	// each from the slopes of the stage before
+	for (int k=0; k<3; k++) {
+	    double h= k<2 ? dt/2 : dt;
+	    double w= k<2 ? 2 : 1;
+	    for (int i=0; i<n; i++) {
+		double ax=fx[i]/m[i], ay=fy[i]/m[i];
+		x[i]=x0[i]+h*vx[i];
+		y[i]=y0[i]+h*vy[i];
+		vx[i]=vx0[i]+h*ax;
+		vy[i]=vy0[i]+h*ay;
+		sx[i]+=w*vx[i];
+		sy[i]+=w*vy[i];
+	    }
+	    engine.sumForces(bodies);
+	    for (int i=0; i<n; i++) {
+		svx[i]+=w*fx[i]/m[i];
+		svy[i]+=w*fy[i]/m[i];
+	    }
+	}
+
+	double s=dt/6;
+	for (int i=0; i<n; i++) {
+	    x[i]=x0[i]+s*sx[i];
+	    y[i]=y0[i]+s*sy[i];
+	    vx[i]=vx0[i]+s*svx[i];
+	    vy[i]=vy0[i]+s*svy[i];
+	}
+    }
+
+    public int getForceEvaluations() {
+	return 4;
+    }
+
+    public String getName() {
+	return "rk4";
+    }
+
+    private void ensureCapacity(int n) {
+	if (x0.length>=n) return;
+	x0=new double[n];
+	y0=new double[n];
+	vx0=new double[n];
+	vy0=new double[n];
+	sx=new double[n];
+	sy=new double[n];
+	svx=new double[n];
+	svy=new double[n];
+    }
+}
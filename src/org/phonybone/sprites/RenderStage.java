@@ -0,0 +1,14 @@
+package org.phonybone.sprites;
+
+/**
+ * Something that wants to see the bodies as a SimulationRunner
+ * advances them, e.g. a window or a trace file. The runner calls
+ * render() after a step; the stage must not modify the bodies.
+ */
+public interface RenderStage {
+    /**
+     * @param bodies The current state of the simulation
+     * @param step The number of steps taken so far
+     */
+    public void render(BodyStore bodies, long step);
+}
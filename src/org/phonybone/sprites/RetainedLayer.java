@@ -0,0 +1,96 @@
+package org.phonybone.sprites;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+
+/**
+ * A layer of the screen that rarely changes, e.g. the background,
+ * painted once into an offscreen image and then copied to the screen
+ * a piece at a time, wherever the screen needs repainting.
+ * <p>
+ * The image is a VolatileImage, so it can live in video memory; the
+ * layer notices when its contents have been lost (and when it has
+ * been invalidated) and paints itself again. Without a screen it uses
+ * a plain BufferedImage.
+ */
+public abstract class RetainedLayer {
+    private int width, height;
+    private Image image;
+    private boolean valid;
+
+    public RetainedLayer(int width, int height) {
+	this.width=width;
+	this.height=height;
+    }
+
+    /**
+     * Paint the layer's contents, with (0,0) the top left of the layer
+     */
+    protected abstract void paint(Graphics2D g);
+
+    /**
+     * Have the layer painted again before it is next drawn
+     */
+    public void invalidate() {
+	valid=false;
+    }
+
+    /**
+     * Make sure the layer's image exists and is up to date, painting it
+     * if not. Call once a frame before drawing from it.
+     *
+     * @param gc The configuration of the screen, or null if there isn't one
+     * @return True if the layer was painted, so anything drawn from
+     *         the old contents is out of date
+     */
+    public boolean validate(GraphicsConfiguration gc) {
+	if (image==null) {
+	    image=createImage(gc);
+	    valid=false;
+	}
+	if (image instanceof VolatileImage) {
+	    VolatileImage v=(VolatileImage)image;
+	    int state=v.validate(gc);
+	    if (state==VolatileImage.IMAGE_INCOMPATIBLE) {
+		v.flush();
+		image=createImage(gc);
+		valid=false;
+	    } else if (state==VolatileImage.IMAGE_RESTORED) {
+		valid=false;
+	    }
+	}
+	if (valid) return false;
+
+	Graphics2D g=(Graphics2D)image.getGraphics();
+	paint(g);
+	g.dispose();
+	valid=true;
+	return true;
+    }
+
+    /**
+     * Copy the layer's rectangle (x,y,w,h) to the same place in g
+     */
+    public void draw(Graphics g, int x, int y, int w, int h) {
+	g.drawImage(image, x, y, x+w, y+h, x, y, x+w, y+h, null);
+    }
+
+    /**
+     * @return True if the contents were lost since validate(), so this
+     *         frame should be drawn again
+     */
+    public boolean contentsLost() {
+	return image instanceof VolatileImage && ((VolatileImage)image).contentsLost();
+    }
+
+    private Image createImage(GraphicsConfiguration gc) {
+	if (gc==null) {
+	    return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+	}
+	return gc.createCompatibleVolatileImage(width, height, Transparency.OPAQUE);
+    }
+}
@@ -29,6 +29,20 @@ public class ShotEntity extends SpriteEntity {
 		dy = moveSpeed;
 	}
 
+	/**
+	 * Get a used shot ready to be fired again
+	 * 
+	 * @param x The new x location of the shot
+	 * @param y The new y location of the shot
+	 */
+	public void reset(int x,int y) {
+		this.x = x;
+		this.y = y;
+		dx = 0;
+		dy = moveSpeed;
+		used = false;
+	}
+
 	/**
 	 * Request that this shot moved based on time elapsed
 	 * 
@@ -0,0 +1,360 @@
+package org.phonybone.sprites;
+
+/**
+ * Advances a BodyStore at a fixed timestep, independent of any window,
+ * wall clock or frame rate. Each step is handed to an Integrator
+ * (leapfrog unless told otherwise).
+ * <p>
+ * Run headless with run(), as fast as the CPU allows; or drive it from
+ * a display loop with advance(), which takes however much real time
+ * has passed and runs the whole number of fixed steps that fit,
+ * carrying the remainder over to the next call. A RenderStage may be
+ * attached to see every n'th step.
+ * <p>
+ * With setEnergyCheck() the runner also watches the total energy, which
+ * an exact integrator would conserve; the drift from the starting value
+ * measures how much accuracy the chosen integrator and dt are losing.
+ * <p>
+ * With setMerger() bodies that pass within a capture radius of each
+ * other are merged after each step, and the integrator (and energy
+ * baseline) restarted on the bodies that remain.
+ */
+public class SimulationRunner {
+    private BodyStore bodies;
+    private ForceEngine forceEngine;
+    private Integrator integrator;
+    /** False until the integrator has been started on the current bodies */
+    private boolean started;
+    /** The fixed timestep (ms) */
+    private long dt;
+    /** Real time not yet simulated by advance() (ms) */
+    private long pending;
+    private long steps;
+    private long runNanos;
+    private long runSteps;
+
+    private RenderStage renderStage;
+    private int renderEvery=1;
+    /** Merges close bodies after each step, or null */
+    private BodyMerger merger;
+
+    // energy monitoring; energyEvery==0 means off
+    private int energyEvery;
+    private double energy0;
+    /** The step count when energy0 was taken */
+    private long energyStep0;
+    private double energyDrift;
+    private double maxEnergyDrift;
+
+    public SimulationRunner(BodyStore bodies, ForceEngine forceEngine, long dt) {
+	this(bodies, forceEngine, new LeapfrogIntegrator(), dt);
+    }
+
+    public SimulationRunner(BodyStore bodies, ForceEngine forceEngine, Integrator integrator, long dt) {
+	if (dt<=0) throw new IllegalArgumentException("dt must be > 0: "+dt);
+	this.bodies=bodies;
+	this.forceEngine=forceEngine;
+	this.integrator=integrator;
+	this.dt=dt;
+    }
+
+    public BodyStore getBodies() {
+	return bodies;
+    }
+
+    public ForceEngine getForceEngine() {
+	return forceEngine;
+    }
+
+    public void setForceEngine(ForceEngine forceEngine) {
+	this.forceEngine=forceEngine;
+	started=false;
+    }
+
+    public Integrator getIntegrator() {
+	return integrator;
+    }
+
+    public void setIntegrator(Integrator integrator) {
+	this.integrator=integrator;
+	started=false;
+    }
+
+    /**
+     * Tell the runner the bodies were changed behind its back (added,
+     * removed, repositioned), so the integrator must start afresh.
+     */
+    public void restart() {
+	started=false;
+    }
+
+    public long getTimestep() {
+	return dt;
+    }
+
+    public long getSteps() {
+	return steps;
+    }
+
+    /**
+     * Set the step count, e.g. to carry on from a Checkpoint. The
+     * integrator starts afresh.
+     */
+    public void setSteps(long steps) {
+	this.steps=steps;
+	started=false;
+    }
+
+    /**
+     * Attach (or with null, detach) a render stage
+     *
+     * @param stage The stage to call
+     * @param every Call it once every this many steps
+     */
+    public void setRenderStage(RenderStage stage, int every) {
+	this.renderStage=stage;
+	this.renderEvery=Math.max(every, 1);
+    }
+
+    /**
+     * Merge close bodies after every step with the given merger, or
+     * with null don't
+     */
+    public void setMerger(BodyMerger merger) {
+	this.merger=merger;
+    }
+
+    public BodyMerger getMerger() {
+	return merger;
+    }
+
+    /**
+     * Watch the total energy every 'every' steps (0 to stop). Energy is
+     * an O(n^2) sum, so keep this sparse for big runs.
+     */
+    public void setEnergyCheck(int every) {
+	energyEvery=Math.max(every, 0);
+	started=false;
+    }
+
+    /** @return The latest relative energy error, |E-E0|/|E0| */
+    public double getEnergyDrift() {
+	return energyDrift;
+    }
+
+    /** @return The largest relative energy error seen */
+    public double getMaxEnergyDrift() {
+	return maxEnergyDrift;
+    }
+
+    /** @return The latest relative energy error divided by the steps taken since energy0 */
+    public double getEnergyDriftPerStep() {
+	long n=steps-energyStep0;
+	return n==0 ? 0 : energyDrift/n;
+    }
+
+    /**
+     * Take one fixed step
+     */
+    public void step() {
+	if (!started) {
+	    integrator.start(bodies, forceEngine);
+	    if (energyEvery>0) {
+		energy0=bodies.totalEnergy();
+		energyStep0=steps;
+		energyDrift=0;
+		maxEnergyDrift=0;
+	    }
+	    started=true;
+	}
+	integrator.step(bodies, forceEngine, dt/1000.0);
+	steps++;
+	if (merger!=null && merger.merge(bodies)>0) started=false;
+	if (energyEvery>0 && steps%energyEvery==0 && energy0!=0) {
+	    energyDrift=Math.abs((bodies.totalEnergy()-energy0)/energy0);
+	    if (energyDrift>maxEnergyDrift) maxEnergyDrift=energyDrift;
+	}
+	if (renderStage!=null && steps%renderEvery==0) renderStage.render(bodies, steps);
+    }
+
+    /**
+     * Take n steps back to back, as fast as possible
+     */
+    public void run(long n) {
+	long t0=System.nanoTime();
+	for (long i=0; i<n; i++) step();
+	runNanos+=System.nanoTime()-t0;
+	runSteps+=n;
+    }
+
+    /**
+     * Account for 'elapsed' ms of real time, taking as many fixed steps
+     * as that covers.
+     *
+     * @return The number of steps taken
+     */
+    public int advance(long elapsed) {
+	pending+=elapsed;
+	int n=0;
+	while (pending>=dt) {
+	    step();
+	    pending-=dt;
+	    n++;
+	}
+	return n;
+    }
+
+    /**
+     * @return Steps per second over all the run() calls so far
+     */
+    public double getStepsPerSecond() {
+	return runNanos==0 ? 0 : runSteps*1e9/runNanos;
+    }
+
+    /**
+     * Run a simulation with no display.
+     * <p>
+     * Usage: SimulationRunner [-n bodies] [-steps s] [-dt ms] [-bh theta | -par threads | -fmm order | -pm grid near]
+     *                         [-int euler|leapfrog|rk4|block] [-energy every] [-print every]
+     *                         [-load file] [-save file] [-checkpoint every pattern]
+     *                         [-record file every] [-soft eps | -spline h] [-merge radius]
+     * <p>
+     * Without -n the planets from PlanetEntity.init_planets are used,
+     * otherwise a random cloud of n bodies. -load carries on from a
+     * Checkpoint instead (its timestep wins over -dt), -save writes one
+     * at the end, and -checkpoint writes one every so many steps to
+     * String.format(pattern, step), e.g. "run-%08d.ck". -record writes
+     * the positions every so many steps with a TrajectoryRecorder
+     * (instead of -print). -soft and -spline soften gravity (Plummer or
+     * spline), overriding a loaded checkpoint's, and -merge merges bodies
+     * that come within the radius.
+     */
+    public static void main(String argv[]) {
+	int n=0;
+	long nSteps=1000;
+	long dt=10;
+	int printEvery=0;
+	int energyEvery=0;
+	String load=null, save=null, pattern=null, record=null;
+	int recordEvery=0;
+	long checkpointEvery=0;
+	Softening softening=null;
+	double mergeRadius=0;
+	ForceEngine engine=new PairwiseForceEngine();
+	Integrator integrator=new LeapfrogIntegrator();
+	for (int i=0; i<argv.length; i++) {
+	    if (argv[i].equals("-n")) n=Integer.parseInt(argv[++i]);
+	    else if (argv[i].equals("-steps")) nSteps=Long.parseLong(argv[++i]);
+	    else if (argv[i].equals("-dt")) dt=Long.parseLong(argv[++i]);
+	    else if (argv[i].equals("-bh")) engine=new BarnesHutForceEngine(Double.parseDouble(argv[++i]));
+	    else if (argv[i].equals("-par")) engine=new ParallelForceEngine(Integer.parseInt(argv[++i]));
+	    else if (argv[i].equals("-fmm")) engine=new FmmForceEngine(Integer.parseInt(argv[++i]), 32);
+	    else if (argv[i].equals("-pm")) {
+		int grid=Integer.parseInt(argv[++i]);
+		engine=new PmForceEngine(grid, Integer.parseInt(argv[++i]));
+	    }
+	    else if (argv[i].equals("-print")) printEvery=Integer.parseInt(argv[++i]);
+	    else if (argv[i].equals("-energy")) energyEvery=Integer.parseInt(argv[++i]);
+	    else if (argv[i].equals("-int")) integrator=integratorForName(argv[++i]);
+	    else if (argv[i].equals("-load")) load=argv[++i];
+	    else if (argv[i].equals("-save")) save=argv[++i];
+	    else if (argv[i].equals("-checkpoint")) {
+		checkpointEvery=Long.parseLong(argv[++i]);
+		pattern=argv[++i];
+	    }
+	    else if (argv[i].equals("-record")) {
+		record=argv[++i];
+		recordEvery=Integer.parseInt(argv[++i]);
+	    }
+	    else if (argv[i].equals("-soft")) softening=Softening.plummer(Double.parseDouble(argv[++i]));
+	    else if (argv[i].equals("-spline")) softening=Softening.spline(Double.parseDouble(argv[++i]));
+	    else if (argv[i].equals("-merge")) mergeRadius=Double.parseDouble(argv[++i]);
+	    else {
+		System.err.println("Unknown argument: "+argv[i]);
+		System.exit(1);
+	    }
+	}
+
+	BodyStore bodies;
+	long steps0=0;
+	if (load!=null) {
+	    bodies=new BodyStore();
+	    try {
+		Checkpoint ck=Checkpoint.read(new java.io.File(load), bodies);
+		steps0=ck.getSteps();
+		dt=ck.getTimestep();
+	    } catch (java.io.IOException e) {
+		System.err.println("Can't load "+load+": "+e.getMessage());
+		System.exit(1);
+	    }
+	} else if (n>0) {
+	    bodies=ForceError.randomBodies(n, 100000, 1);
+	} else {
+	    bodies=new BodyStore();
+	    PlanetEntity.init_planets(null, bodies);
+	}
+
+	SimulationRunner runner=new SimulationRunner(bodies, engine, integrator, dt);
+	// a loaded checkpoint brings its own softening, unless overridden
+	if (softening!=null) bodies.setSoftening(softening);
+	int n0=bodies.size();
+	runner.setSteps(steps0);
+	runner.setEnergyCheck(energyEvery);
+	if (mergeRadius>0) runner.setMerger(new BodyMerger(mergeRadius));
+	TrajectoryRecorder recorder=null;
+	if (record!=null) {
+	    try {
+		recorder=new TrajectoryRecorder(new java.io.File(record));
+	    } catch (java.io.IOException e) {
+		System.err.println("Can't record to "+record+": "+e.getMessage());
+		System.exit(1);
+	    }
+	    runner.setRenderStage(recorder, recordEvery);
+	} else if (printEvery>0) {
+	    runner.setRenderStage(new RenderStage() {
+		    public void render(BodyStore bodies, long step) {
+			System.out.printf("step %d: body0 x=%.2f y=%.2f%n", step, bodies.getX(0), bodies.getY(0));
+		    }
+		}, printEvery);
+	}
+	try {
+	    if (checkpointEvery>0) {
+		for (long done=0; done<nSteps; done+=checkpointEvery) {
+		    runner.run(Math.min(checkpointEvery, nSteps-done));
+		    Checkpoint.write(new java.io.File(String.format(pattern, runner.getSteps())), runner);
+		}
+	    } else {
+		runner.run(nSteps);
+	    }
+	    if (save!=null) Checkpoint.write(new java.io.File(save), runner);
+	    if (recorder!=null) recorder.close();
+	} catch (java.io.IOException e) {
+	    System.err.println("Can't write: "+e.getMessage());
+	    System.exit(1);
+	}
+	System.out.printf("%s/%s: %d bodies, %d steps of %dms, %.1f steps/s%n",
+			  engine.getName(), integrator.getName(), bodies.size(), runner.getSteps(), dt, runner.getStepsPerSecond());
+	if (bodies.getSoftening()!=null) System.out.printf("softening %s%n", bodies.getSoftening().getName());
+	if (runner.getMerger()!=null) System.out.printf("merged %d of %d bodies%n", n0-bodies.size(), n0);
+	if (energyEvery>0) {
+	    System.out.printf("energy drift %.3e (max %.3e, %.3e per step)%n",
+			      runner.getEnergyDrift(), runner.getMaxEnergyDrift(), runner.getEnergyDriftPerStep());
+	}
+	if (recorder!=null) {
+	    System.out.printf("recorded %d steps, waited for the writer %d times (%.1f ms)%n",
+			      recorder.getStepsRecorded(), recorder.getStalls(), recorder.getStallNanos()/1e6);
+	}
+	if (engine instanceof ParallelForceEngine) ((ParallelForceEngine)engine).shutdown();
+    }
+
+    /**
+     * @return The integrator called "euler", "leapfrog" (or "verlet") or "rk4"
+     */
+    public static Integrator integratorForName(String name) {
+	if (name.equals("euler")) return new EulerIntegrator();
+	if (name.equals("leapfrog") || name.equals("verlet")) return new LeapfrogIntegrator();
+	if (name.equals("rk4")) return new RK4Integrator();
+	if (name.equals("block")) return new BlockTimestepIntegrator();
+	throw new IllegalArgumentException("Unknown integrator: "+name);
+    }
+}
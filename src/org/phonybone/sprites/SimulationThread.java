@@ -0,0 +1,62 @@
+package org.phonybone.sprites;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a SimulationRunner in real time on a thread of its own, so the
+ * physics keeps its pace however long a frame takes to draw and show,
+ * and the display isn't held up by a slow step. The runner's
+ * RenderStage (normally a SnapshotExchange) is how the results get
+ * out; nothing else should touch the runner's bodies while the thread
+ * is running.
+ */
+public class SimulationThread extends Thread {
+    private SimulationRunner runner;
+    private volatile boolean running=true;
+    private volatile boolean paused;
+
+    public SimulationThread(SimulationRunner runner) {
+	super("simulation");
+	this.runner=runner;
+	setDaemon(true);
+    }
+
+    public void run() {
+	long stepNanos=runner.getTimestep()*1000000L;
+	long last=System.nanoTime();
+	long carry=0;
+	while (running) {
+	    long now=System.nanoTime();
+	    if (!paused) {
+		// feed the runner whole ms, keeping the rest for next time
+		carry+=now-last;
+		long ms=carry/1000000L;
+		carry-=ms*1000000L;
+		runner.advance(ms);
+	    }
+	    last=now;
+	    // sleep until about the next step is due
+	    long wait=stepNanos-(System.nanoTime()-now);
+	    if (wait>0) LockSupport.parkNanos(wait);
+	}
+    }
+
+    /**
+     * Stop (or restart) simulated time passing; the thread keeps running
+     */
+    public void setPaused(boolean paused) {
+	this.paused=paused;
+    }
+
+    /**
+     * Stop the thread and wait for it to finish its step
+     */
+    public void halt() {
+	running=false;
+	LockSupport.unpark(this);
+	try {
+	    join();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+    }
+}
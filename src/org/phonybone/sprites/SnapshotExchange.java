@@ -0,0 +1,85 @@
+package org.phonybone.sprites;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands snapshots of the bodies from the simulation thread to the
+ * render thread without locks, through three buffers: the simulation
+ * fills the back one, the renderer reads the front one, and finished
+ * snapshots wait in the middle. Publishing swaps back and middle;
+ * acquiring swaps middle and front if a newer snapshot is waiting.
+ * Neither side ever waits for the other, and nothing is allocated
+ * once the buffers have grown to the number of bodies.
+ * <p>
+ * Attach it to a SimulationRunner as its RenderStage, every step.
+ */
+public class SnapshotExchange implements RenderStage {
+    /** Set in 'middle' when it holds a snapshot the reader hasn't seen */
+    private static final int FRESH=4;
+
+    private BodySnapshot[] buffers={new BodySnapshot(), new BodySnapshot(), new BodySnapshot()};
+    /** Index of the waiting buffer, plus FRESH */
+    private AtomicInteger middle=new AtomicInteger(1);
+    private int back=0;	// writer's
+    private int front=2;	// reader's
+
+    private long stepNanos;
+    // positions after the last step, i.e. before the next (writer's)
+    private double[] lastX=new double[0], lastY=new double[0];
+    private boolean primed;
+
+    /**
+     * @param stepMillis The runner's timestep, in ms
+     */
+    public SnapshotExchange(long stepMillis) {
+	this.stepNanos=stepMillis*1000000L;
+    }
+
+    /**
+     * Seed the exchange with the bodies' starting state, so the
+     * reader has something before the first step
+     */
+    public void prime(BodyStore bodies) {
+	savePositions(bodies);
+	publish(bodies, 0);
+	primed=true;
+    }
+
+    /**
+     * Writer: publish the state after a step
+     */
+    public void render(BodyStore bodies, long step) {
+	if (!primed) {
+	    // no earlier positions; this step's will do
+	    savePositions(bodies);
+	    primed=true;
+	}
+	publish(bodies, step);
+    }
+
+    /**
+     * Reader: the newest snapshot published. It stays valid, and
+     * unchanged, until the next call.
+     */
+    public BodySnapshot acquire() {
+	if ((middle.get()&FRESH)!=0) {
+	    front=middle.getAndSet(front)&~FRESH;
+	}
+	return buffers[front];
+    }
+
+    private void publish(BodyStore bodies, long step) {
+	buffers[back].capture(bodies, lastX, lastY, step, stepNanos);
+	back=middle.getAndSet(back|FRESH)&~FRESH;
+	savePositions(bodies);
+    }
+
+    private void savePositions(BodyStore bodies) {
+	int n=bodies.size();
+	if (lastX.length<n) {
+	    lastX=new double[n];
+	    lastY=new double[n];
+	}
+	System.arraycopy(bodies.x, 0, lastX, 0, n);
+	System.arraycopy(bodies.y, 0, lastY, 0, n);
+    }
+}
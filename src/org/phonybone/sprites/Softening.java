@@ -0,0 +1,103 @@
+package org.phonybone.sprites;
+
+/**
+ * Softened gravity, so that close passes don't produce enormous
+ * forces (and a step size small enough to follow them). The force
+ * between two bodies d apart is
+ * <pre>
+ *     F = -G*m_i*m_j*d*inverseCube(r^2)
+ * </pre>
+ * where inverseCube is 1/r^3 for plain gravity. Two forms:
+ * <ul>
+ * <li>Plummer: 1/(r^2+eps^2)^(3/2). Simple and smooth, but it weakens
+ *     the force a little at every distance.
+ * <li>Spline: the cubic spline kernel of Monaghan and Lattanzio, as in
+ *     most tree codes. Inside h the mass is smeared out; outside h the
+ *     force is exactly Newtonian. A spline of length h is about as soft
+ *     as Plummer with eps=h/2.8.
+ * </ul>
+ * Give a BodyStore one with setSoftening(); the force engines, the
+ * energy sums and the jerk all honour it.
+ */
+public class Softening {
+    private boolean spline;
+    private double length;
+    private double eps2;
+    private double h, h2, hinv, hinv3;
+
+    private Softening(boolean spline, double length) {
+	if (length<=0) throw new IllegalArgumentException("softening length must be > 0: "+length);
+	this.spline=spline;
+	this.length=length;
+	eps2=length*length;
+	h=length;
+	h2=length*length;
+	hinv=1/length;
+	hinv3=hinv*hinv*hinv;
+    }
+
+    /**
+     * @param eps The Plummer softening length
+     */
+    public static Softening plummer(double eps) {
+	return new Softening(false, eps);
+    }
+
+    /**
+     * @param h The radius inside which the spline kernel softens
+     */
+    public static Softening spline(double h) {
+	return new Softening(true, h);
+    }
+
+    public boolean isSpline() {
+	return spline;
+    }
+
+    public double getLength() {
+	return length;
+    }
+
+    /** @return The Plummer length of about the same softness */
+    public double getPlummerLength() {
+	return spline ? length/2.8 : length;
+    }
+
+    public String getName() {
+	return (spline ? "spline(h=" : "plummer(eps=")+length+")";
+    }
+
+    /**
+     * @param r2 The squared distance between two bodies
+     * @return The softened 1/r^3
+     */
+    public double inverseCube(double r2) {
+	if (!spline) {
+	    double inv=1/Math.sqrt(r2+eps2);
+	    return inv*inv*inv;
+	}
+	if (r2>=h2) {
+	    double inv=1/Math.sqrt(r2);
+	    return inv*inv*inv;
+	}
+	double u=Math.sqrt(r2)*hinv;
+	if (u<0.5) {
+	    return hinv3*(10.666666666667+u*u*(32.0*u-38.4));
+	}
+	return hinv3*(21.333333333333-48.0*u+38.4*u*u-10.666666666667*u*u*u-0.066666666667/(u*u*u));
+    }
+
+    /**
+     * @param r2 The squared distance between two bodies
+     * @return The softened 1/r, for the potential energy
+     */
+    public double inverse(double r2) {
+	if (!spline) return 1/Math.sqrt(r2+eps2);
+	if (r2>=h2) return 1/Math.sqrt(r2);
+	double u=Math.sqrt(r2)*hinv;
+	if (u<0.5) {
+	    return -hinv*(-2.8+u*u*(5.333333333333+u*u*(6.4*u-9.6)));
+	}
+	return -hinv*(-3.2+0.066666666667/u+u*u*(10.666666666667+u*(-16.0+u*(9.6-2.133333333333*u))));
+    }
+}
@@ -0,0 +1,155 @@
+package org.phonybone.sprites;
+import java.util.ArrayList;
+
+/**
+ * Broad phase over a uniform grid of square cells, stored sparsely in
+ * a hash table keyed by cell so the playing field needn't be bounded.
+ * Every entity is entered in each cell its box touches, and only
+ * entities sharing a cell are compared: O(n) when cells are about the
+ * size of the entities.
+ * <p>
+ * A pair sharing several cells is reported only from the cell holding
+ * the top-left corner of the overlap of the two boxes, so it is
+ * reported exactly once.
+ * <p>
+ * The table is rebuilt each pass in arrays that are kept between
+ * passes; only the buckets that were used are cleared, so the cost
+ * tracks the number of entities rather than the table size, and a
+ * steady-state pass allocates nothing.
+ */
+public class SpatialHashBroadPhase implements BroadPhase {
+    private int cellSize;
+
+    /** First entry in each bucket, or -1; length is a power of two */
+    private int[] head=new int[0];
+    /** Buckets in use this pass, so they can be cleared cheaply */
+    private int[] used=new int[0];
+    private int nUsed;
+
+    // Entries: one per (entity, cell) the entity touches
+    private int nEntries;
+    private int[] entryEntity=new int[0];
+    private int[] entryCellX=new int[0], entryCellY=new int[0];
+    private int[] entryNext=new int[0];
+
+    // Entity boxes, copied out once per pass
+    private int[] minX=new int[0], minY=new int[0], maxX=new int[0], maxY=new int[0];
+    private Entity[] ents=new Entity[0];
+
+    /**
+     * @param cellSize Width and height of a cell in pixels; about the
+     *                 size of a typical entity works best
+     */
+    public SpatialHashBroadPhase(int cellSize) {
+	if (cellSize<1) throw new IllegalArgumentException("cellSize must be >= 1: "+cellSize);
+	this.cellSize=cellSize;
+    }
+
+    public String getName() {
+	return "spatial-hash(cell="+cellSize+")";
+    }
+
+    public void findPairs(ArrayList entities, CollisionHandler handler) {
+	int n=entities.size();
+	ensureEntityCapacity(n);
+	for (int i=0; i<n; i++) {
+	    Entity e=(Entity)entities.get(i);
+	    ents[i]=e;
+	    minX[i]=e.getX();
+	    minY[i]=e.getY();
+	    maxX[i]=minX[i]+e.getWidth();
+	    maxY[i]=minY[i]+e.getHeight();
+	}
+
+	// clear last pass's buckets
+	for (int k=0; k<nUsed; k++) head[used[k]]=-1;
+	nUsed=0;
+	nEntries=0;
+	if (head.length<2*n) resizeTable(2*n);
+
+	for (int i=0; i<n; i++) {
+	    int cx0=cell(minX[i]), cx1=cell(maxX[i]-1);
+	    int cy0=cell(minY[i]), cy1=cell(maxY[i]-1);
+	    for (int cy=cy0; cy<=cy1; cy++) {
+		for (int cx=cx0; cx<=cx1; cx++) {
+		    insert(i, cx, cy);
+		}
+	    }
+	}
+
+	for (int k=0; k<nUsed; k++) {
+	    for (int a=head[used[k]]; a>=0; a=entryNext[a]) {
+		int i=entryEntity[a];
+		int cx=entryCellX[a], cy=entryCellY[a];
+		for (int b=entryNext[a]; b>=0; b=entryNext[b]) {
+		    if (entryCellX[b]!=cx || entryCellY[b]!=cy) continue;
+		    int j=entryEntity[b];
+		    if (!overlaps(i, j)) continue;
+		    // report from the cell owning the overlap's top-left corner
+		    if (cell(Math.max(minX[i], minX[j]))!=cx || cell(Math.max(minY[i], minY[j]))!=cy) continue;
+		    handler.collision(ents[i], ents[j]);
+		}
+	    }
+	}
+
+	// don't hold on to entities the game has finished with
+	for (int i=0; i<n; i++) ents[i]=null;
+    }
+
+    private boolean overlaps(int i, int j) {
+	return minX[i]<maxX[j] && minX[j]<maxX[i] && minY[i]<maxY[j] && minY[j]<maxY[i];
+    }
+
+    private int cell(int v) {
+	// floor division, so negative coordinates get their own cells
+	return v>=0 ? v/cellSize : -((-v-1)/cellSize)-1;
+    }
+
+    private void insert(int entity, int cx, int cy) {
+	if (nEntries==entryEntity.length) growEntries(Math.max(16, 2*nEntries));
+	int h=hash(cx, cy)&(head.length-1);
+	if (head[h]<0) used[nUsed++]=h;
+	int e=nEntries++;
+	entryEntity[e]=entity;
+	entryCellX[e]=cx;
+	entryCellY[e]=cy;
+	entryNext[e]=head[h];
+	head[h]=e;
+    }
+
+    private static int hash(int cx, int cy) {
+	int h=cx*0x9E3779B1+cy*0x85EBCA77;
+	return h^(h>>>15);
+    }
+
+    private void resizeTable(int min) {
+	int size=16;
+	while (size<min) size<<=1;
+	head=new int[size];
+	for (int k=0; k<size; k++) head[k]=-1;
+	used=new int[size];
+	nUsed=0;
+    }
+
+    private void growEntries(int cap) {
+	entryEntity=copy(entryEntity, cap);
+	entryCellX=copy(entryCellX, cap);
+	entryCellY=copy(entryCellY, cap);
+	entryNext=copy(entryNext, cap);
+    }
+
+    private void ensureEntityCapacity(int n) {
+	if (n<=ents.length) return;
+	ents=new Entity[n];
+	minX=new int[n];
+	minY=new int[n];
+	maxX=new int[n];
+	maxY=new int[n];
+    }
+
+    private static int[] copy(int[] a, int cap) {
+	int[] b=new int[cap];
+	System.arraycopy(a, 0, b, 0, a.length);
+	return b;
+    }
+}
@@ -9,12 +9,20 @@ import java.awt.Image;
  * not the location. This allows us to use a single sprite in
  * lots of different places without having to store multiple 
  * copies of the image.
+ * <p>
+ * Once packed into a SpriteAtlas the sprite draws its region of the
+ * atlas page, and no longer holds an image of its own.
  * 
  * @author Kevin Glass
  */
 public class Sprite {
-    /** The image to be drawn for this sprite */
+    /** The image to be drawn for this sprite (null once packed) */
     private Image image;
+    private int width;
+    private int height;
+    /** The atlas page holding this sprite, if packed, and where on it */
+    private SpriteAtlas.Page page;
+    private int sx, sy;
 	
     /**
      * Create a new sprite based on an image
@@ -23,6 +31,8 @@ public class Sprite {
      */
     public Sprite(Image image) {
 	this.image = image;
+	this.width = image.getWidth(null);
+	this.height = image.getHeight(null);
     }
 	
     /**
@@ -31,7 +41,7 @@ public class Sprite {
      * @return The width in pixels of this sprite
      */
     public int getWidth() {
-	return image.getWidth(null);
+	return width;
     }
 
     /**
@@ -40,7 +50,34 @@ public class Sprite {
      * @return The height in pixels of this sprite
      */
     public int getHeight() {
-	return image.getHeight(null);
+	return height;
+    }
+
+    /**
+     * Get the image this sprite draws: its own, or its atlas page
+     */
+    public Image getImage() {
+	return page != null ? page.getImage() : image;
+    }
+
+    /**
+     * Get the atlas page holding this sprite
+     * 
+     * @return The page, or null if the sprite isn't packed
+     */
+    public SpriteAtlas.Page getPage() {
+	return page;
+    }
+
+    /**
+     * Point this sprite at its copy in an atlas page, and let go of
+     * its own image
+     */
+    void setAtlasRegion(SpriteAtlas.Page page, int sx, int sy) {
+	this.page = page;
+	this.sx = sx;
+	this.sy = sy;
+	this.image = null;
     }
 	
     /**
@@ -51,6 +88,10 @@ public class Sprite {
      * @param y The y location at which to draw the sprite
      */
     public void draw(Graphics g,int x,int y) {
-	g.drawImage(image,x,y,null);
+	if (page != null) {
+	    g.drawImage(page.getImage(),x,y,x+width,y+height,sx,sy,sx+width,sy+height,null);
+	} else {
+	    g.drawImage(image,x,y,null);
+	}
     }
-}
\ No newline at end of file
+}
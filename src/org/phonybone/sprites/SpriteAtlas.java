@@ -0,0 +1,133 @@
+package org.phonybone.sprites;
+
+import java.awt.Graphics;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+
+/**
+ * Packs many small sprite images into a few large page images. A
+ * packed Sprite draws a sub-rectangle of its page rather than an image
+ * of its own, so a frame's worth of sprites touches a handful of
+ * source images instead of hundreds: far fewer texture switches in the
+ * accelerated pipelines, and (drawn through a SpriteBatch) consecutive
+ * draws from the same page.
+ * <p>
+ * Packing is shelf-first-fit: images are laid left to right along a
+ * shelf as tall as the tallest image on it, and a new shelf (or page)
+ * is started when one won't fit. An image too big for a page gets a
+ * page to itself.
+ */
+public class SpriteAtlas {
+    /** Transparent gap left around each image, so neighbours never bleed */
+    private static final int PAD=1;
+
+    private int pageSize;
+    private ArrayList pages=new ArrayList();
+
+    /**
+     * One page of the atlas
+     */
+    public static class Page {
+	private int id;
+	private Image image;
+	private int size;
+	// the open shelf
+	private int shelfY, shelfHeight, cursorX;
+
+	Page(int id, int width, int height) {
+	    this.id=id;
+	    this.size=Math.max(width, height);
+	    this.image=createImage(width, height);
+	}
+
+	/** @return This page's number, 0 to getPageCount()-1 */
+	public int getId() {
+	    return id;
+	}
+
+	public Image getImage() {
+	    return image;
+	}
+
+	// find room for a w x h image; returns {x,y} or null if full
+	int[] allocate(int w, int h) {
+	    if (cursorX+w+PAD>size) {
+		// close this shelf and start another below it
+		shelfY+=shelfHeight;
+		shelfHeight=0;
+		cursorX=0;
+	    }
+	    if (cursorX+w+PAD>size || shelfY+h+PAD>size) return null;
+	    int[] at={cursorX+PAD, shelfY+PAD};
+	    cursorX+=w+PAD;
+	    shelfHeight=Math.max(shelfHeight, h+PAD);
+	    return at;
+	}
+    }
+
+    /**
+     * @param pageSize The width and height of each page in pixels
+     */
+    public SpriteAtlas(int pageSize) {
+	this.pageSize=pageSize;
+    }
+
+    public int getPageCount() {
+	return pages.size();
+    }
+
+    public Page getPage(int i) {
+	return (Page)pages.get(i);
+    }
+
+    /**
+     * Copy a sprite's image into the atlas and point the sprite at it.
+     * Already packed sprites are left alone.
+     */
+    public void pack(Sprite sprite) {
+	if (sprite.getPage()!=null) return;
+	Image image=sprite.getImage();
+	int w=sprite.getWidth(), h=sprite.getHeight();
+
+	Page page=null;
+	int[] at=null;
+	if (w+2*PAD>pageSize || h+2*PAD>pageSize) {
+	    page=newPage(w+2*PAD, h+2*PAD);
+	    at=page.allocate(w, h);
+	} else {
+	    // first fit over the open shelves of every page
+	    for (int i=0; i<pages.size() && at==null; i++) {
+		page=(Page)pages.get(i);
+		at=page.allocate(w, h);
+	    }
+	    if (at==null) {
+		page=newPage(pageSize, pageSize);
+		at=page.allocate(w, h);
+	    }
+	}
+
+	Graphics g=page.image.getGraphics();
+	g.drawImage(image, at[0], at[1], null);
+	g.dispose();
+	sprite.setAtlasRegion(page, at[0], at[1]);
+    }
+
+    private Page newPage(int width, int height) {
+	Page page=new Page(pages.size(), width, height);
+	pages.add(page);
+	return page;
+    }
+
+    // an image suited to the screen, or a plain one when there's no screen
+    private static Image createImage(int width, int height) {
+	if (GraphicsEnvironment.isHeadless()) {
+	    return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+	}
+	GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+	return gc.createCompatibleImage(width, height, Transparency.BITMASK);
+    }
+}
@@ -0,0 +1,80 @@
+package org.phonybone.sprites;
+
+import java.awt.Graphics;
+
+/**
+ * Collects a frame's sprite draws and issues them grouped by atlas
+ * page, so all the draws from one page image happen back to back.
+ * Unpacked sprites are drawn first, in the order they were added; the
+ * draws from each page keep their relative order too, but pages may
+ * overlap each other differently than the order of add() calls.
+ * <p>
+ * The queue is kept in primitive arrays which grow to the busiest
+ * frame and are reused, so a steady frame allocates nothing.
+ */
+public class SpriteBatch {
+    private Sprite[] sprites=new Sprite[256];
+    private int[] xs=new int[256], ys=new int[256];
+    private int n;
+
+    // counting sort scratch: bucket 0 is unpacked, bucket p+1 is page p
+    private int[] counts=new int[8];
+    private int[] order=new int[256];
+
+    /**
+     * Queue a sprite to be drawn at (x,y) on the next flush
+     */
+    public void add(Sprite sprite, int x, int y) {
+	if (n==sprites.length) grow(2*n);
+	sprites[n]=sprite;
+	xs[n]=x;
+	ys[n]=y;
+	n++;
+    }
+
+    public int size() {
+	return n;
+    }
+
+    /**
+     * Draw everything queued, page by page, and empty the queue
+     */
+    public void flush(Graphics g) {
+	int buckets=1;
+	for (int i=0; i<n; i++) {
+	    SpriteAtlas.Page p=sprites[i].getPage();
+	    if (p!=null && p.getId()+2>buckets) buckets=p.getId()+2;
+	}
+	if (counts.length<buckets+1) counts=new int[buckets+1];
+	for (int b=0; b<=buckets; b++) counts[b]=0;
+
+	for (int i=0; i<n; i++) counts[bucket(sprites[i])+1]++;
+	for (int b=1; b<=buckets; b++) counts[b]+=counts[b-1];
+	for (int i=0; i<n; i++) order[counts[bucket(sprites[i])]++]=i;
+
+	for (int k=0; k<n; k++) {
+	    int i=order[k];
+	    sprites[i].draw(g, xs[i], ys[i]);
+	    sprites[i]=null;
+	}
+	n=0;
+    }
+
+    private static int bucket(Sprite s) {
+	SpriteAtlas.Page p=s.getPage();
+	return p==null ? 0 : p.getId()+1;
+    }
+
+    private void grow(int cap) {
+	Sprite[] s=new Sprite[cap];
+	System.arraycopy(sprites, 0, s, 0, n);
+	sprites=s;
+	int[] x=new int[cap];
+	System.arraycopy(xs, 0, x, 0, n);
+	xs=x;
+	int[] y=new int[cap];
+	System.arraycopy(ys, 0, y, 0, n);
+	ys=y;
+	order=new int[cap];
+    }
+}
@@ -19,6 +19,15 @@ public abstract class SpriteEntity extends Entity {
     public void draw(Graphics g) {
 	sprite.draw(g,(int) x,(int) y);
     }
+
+    // queue this entity's sprite on a batch instead of drawing it now
+    public void draw(SpriteBatch batch) {
+	batch.add(sprite,(int) x,(int) y);
+    }
+
+    public Sprite getSprite() {
+	return sprite;
+    }
     public abstract void collidedWith(Entity other);
 
     public int getWidth() {
@@ -37,7 +46,7 @@ public abstract class SpriteEntity extends Entity {
 
     public boolean collidesWith(Entity other) {
 	me.setBounds((int) x,(int) y,sprite.getWidth(),sprite.getHeight());
-	him.setBounds((int) other.x,(int) other.y,other.getWidth(),other.getHeight());
+	him.setBounds(other.getX(),other.getY(),other.getWidth(),other.getHeight());
 
 	return me.intersects(him);
     }
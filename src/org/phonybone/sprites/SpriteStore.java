@@ -6,9 +6,23 @@ import java.awt.GraphicsEnvironment;
 import java.awt.Image;
 import java.awt.Transparency;
 import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.URL;
-import java.util.HashMap;
+import java.awt.image.ColorModel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.imageio.ImageIO;
 
@@ -18,13 +32,27 @@ import javax.imageio.ImageIO;
  * it makes sense to have a central resource loader that goes away, gets
  * your resources and caches them for future use.
  * <p>
+ * The store is safe to use from any thread. Each reference maps to a
+ * future for its sprite, so however many threads ask for the same
+ * image at once it is decoded exactly once. Images can be decoded in
+ * the background with load() or preload(), e.g. from a manifest at
+ * startup, so the first entity to use a sprite doesn't stall a frame
+ * decoding it.
+ * <p>
+ * The cache holds at most a budget of bytes of decoded image (width x
+ * height x bytes per pixel). Past that the least recently fetched
+ * sprites are dropped, to be decoded again if asked for, except those
+ * pinned with pin(). Sprites packed into the atlas live in its pages,
+ * which dropping them wouldn't free, so they don't count against the
+ * budget and are never dropped.
+ * <p>
  * [singleton]
  * <p>
  * @author Kevin Glass
  */
 public class SpriteStore {
     /** The single instance of this class */
-    private static SpriteStore single = new SpriteStore();
+    private static SpriteStore single = new SpriteStore(Long.getLong("sprites.cache.bytes",64L<<20).longValue());
 		
     /**
      * Get the single instance of this class 
@@ -35,8 +63,106 @@ public class SpriteStore {
 	return single;
     }
 		
-    /** The cached sprite map, from reference to sprite instance */
-    private HashMap sprites = new HashMap();
+    /** The cached sprite map, from reference to a future sprite instance */
+    private ConcurrentHashMap sprites = new ConcurrentHashMap();
+    /** If set, every sprite decoded from then on is packed into this atlas */
+    private SpriteAtlas atlas;
+    /** The background decoding threads, started on first use */
+    private ExecutorService loader;
+
+    /** Cache entries by ref, least recently fetched first; guarded by this */
+    private LinkedHashMap entries = new LinkedHashMap(16,0.75f,true);
+    /** Most bytes of unpacked images to keep */
+    private long budget;
+    /** Bytes of unpacked images in the cache; guarded by this */
+    private long residentBytes;
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+    private long evictions;
+
+    /** The bookkeeping for one ref */
+    private static class Entry {
+	Load task;
+	Sprite sprite;
+	/** Bytes counted against the budget (0 once packed) */
+	long bytes;
+	int pins;
+    }
+
+    /** A decode of one ref, which enters the cache when it finishes */
+    private class Load extends FutureTask {
+	String ref;
+
+	Load(final String ref) {
+	    super(new Callable() {
+		    public Object call() throws Exception {
+			return decode(ref);
+		    }
+		});
+	    this.ref = ref;
+	}
+
+	protected void done() {
+	    if (!isCancelled()) {
+		try {
+		    admit(this,(Sprite) get());
+		} catch (Exception e) {
+		    // reported to whoever fetches it
+		}
+	    }
+	}
+    }
+
+    /**
+     * Create a store
+     *
+     * @param budget The most bytes of decoded images to keep cached
+     */
+    public SpriteStore(long budget) {
+	this.budget = budget;
+    }
+
+    /**
+     * Start packing sprites into an atlas as they are loaded. A sprite
+     * is only packed while it's decoded, before anyone can hold it, so
+     * those already loaded stay as they are: call this before preload().
+     *
+     * @param pageSize The size of the atlas pages, e.g. 1024
+     * @return The atlas. It isn't thread safe and the loader threads
+     *         pack into it, so pack other sprites with pack(), not
+     *         through the atlas itself
+     */
+    public synchronized SpriteAtlas enableAtlas(int pageSize) {
+	if (atlas == null) {
+	    atlas = new SpriteAtlas(pageSize);
+	}
+	return atlas;
+    }
+
+    /**
+     * Pack a sprite the store didn't load (e.g. an IndexedSprite's
+     * frames) into the atlas, under the same lock as the loaders. As
+     * with the store's own, do it before the sprite is drawn or handed
+     * to another thread.
+     *
+     * @return False if enableAtlas() hasn't been called
+     */
+    public synchronized boolean pack(Sprite sprite) {
+	if (atlas == null) {
+	    return false;
+	}
+	atlas.pack(sprite);
+	return true;
+    }
+
+    /**
+     * Get the atlas sprites are packed into
+     *
+     * @return The atlas, or null if enableAtlas() hasn't been called
+     */
+    public synchronized SpriteAtlas getAtlas() {
+	return atlas;
+    }
 		
     /**
      * Retrieve a sprite from the store
@@ -45,47 +171,315 @@ public class SpriteStore {
      * @return A sprite instance containing an accelerate image of the request reference
      */
     public Sprite getSprite(String ref) {
-	// if we've already got the sprite in the cache
-	// then just return the existing version
-	if (sprites.get(ref) != null) {
-	    return (Sprite) sprites.get(ref);
+	Load task = (Load) sprites.get(ref);
+	if (task != null) {
+	    hits.incrementAndGet();
+	} else {
+	    misses.incrementAndGet();
+	    task = task(ref);
 	}
-			
-	// otherwise, go away and grab the sprite from the resource
-	// loader
+	// if nobody has started decoding it yet (or it's still queued for
+	// the loader) decode it on this thread; if it's already running
+	// this does nothing, and get() waits for the result
+	if (!task.isDone()) {
+	    task.run();
+	}
+	Sprite sprite = sprite(task);
+	touch(ref);
+	return sprite;
+    }
+
+    /**
+     * Keep a sprite in the cache however long it goes unused, until
+     * unpinned as many times as it was pinned. The sprite needn't be
+     * loaded yet.
+     * 
+     * @param ref The reference to the image to pin
+     */
+    public synchronized void pin(String ref) {
+	Entry e = (Entry) entries.get(ref);
+	if (e == null) {
+	    e = new Entry();
+	    entries.put(ref,e);
+	}
+	e.pins++;
+    }
+
+    /**
+     * Undo one pin(); once no pins are left the sprite can be evicted
+     * 
+     * @param ref The reference to the image to unpin
+     */
+    public synchronized void unpin(String ref) {
+	Entry e = (Entry) entries.get(ref);
+	if (e == null || e.pins == 0) {
+	    throw new IllegalStateException("Not pinned: "+ref);
+	}
+	e.pins--;
+	if (e.pins == 0 && e.sprite == null) {
+	    entries.remove(ref);
+	}
+	evict();
+    }
+
+    /**
+     * Change the cache budget, evicting at once if it's now exceeded
+     * 
+     * @param budget The most bytes of decoded images to keep cached
+     */
+    public synchronized void setBudget(long budget) {
+	this.budget = budget;
+	evict();
+    }
+
+    public synchronized long getBudget() {
+	return budget;
+    }
+
+    /** @return The bytes of unpacked images now cached */
+    public synchronized long getResidentBytes() {
+	return residentBytes;
+    }
+
+    /** @return getSprite() calls which found the ref loaded or loading */
+    public long getHits() {
+	return hits.get();
+    }
+
+    /** @return getSprite() calls which had to start a decode */
+    public long getMisses() {
+	return misses.get();
+    }
+
+    /** @return Sprites dropped to stay within the budget */
+    public synchronized long getEvictions() {
+	return evictions;
+    }
+
+    /**
+     * Start decoding a sprite in the background, if it isn't already
+     * loaded or loading
+     * 
+     * @param ref The reference to the image to use for the sprite
+     * @return The sprite to come
+     */
+    public Future load(String ref) {
+	Load task = (Load) sprites.get(ref);
+	if (task == null) {
+	    task = task(ref);
+	    loader().execute(task);
+	}
+	return task;
+    }
+
+    /**
+     * Start decoding each of the given sprites in the background
+     * 
+     * @param refs The references to the images to load
+     */
+    public void preload(String[] refs) {
+	for (int i=0;i<refs.length;i++) {
+	    load(refs[i]);
+	}
+    }
+
+    /**
+     * Start decoding every sprite listed in a manifest in the
+     * background. The manifest is a resource with one image reference
+     * per line; blank lines and lines starting with '#' are skipped.
+     * 
+     * @param manifest The reference to the manifest
+     * @return The number of sprites listed
+     */
+    public int preload(String manifest) {
+	URL url = this.getClass().getClassLoader().getResource(manifest);
+	if (url == null) {
+	    fail("Can't find manifest: "+manifest);
+	}
+
+	ArrayList refs = new ArrayList();
+	try {
+	    BufferedReader in = new BufferedReader(new InputStreamReader(url.openStream(),"UTF-8"));
+	    try {
+		String line;
+		while ((line = in.readLine()) != null) {
+		    line = line.trim();
+		    if (line.length() > 0 && !line.startsWith("#")) {
+			refs.add(line);
+		    }
+		}
+	    } finally {
+		in.close();
+	    }
+	} catch (IOException e) {
+	    fail("Failed to read manifest: "+manifest);
+	}
+
+	preload((String[]) refs.toArray(new String[refs.size()]));
+	return refs.size();
+    }
+
+    // the one task for ref: the cached one, or a new (not yet run) one
+    private Load task(String ref) {
+	Load task = (Load) sprites.get(ref);
+	if (task != null) {
+	    return task;
+	}
+	task = new Load(ref);
+	// if another thread got in first, use its task instead of ours
+	Load existing = (Load) sprites.putIfAbsent(ref,task);
+	return existing != null ? existing : task;
+    }
+
+    // wait for a sprite to be decoded
+    private Sprite sprite(Future future) {
+	Sprite sprite = null;
+	try {
+	    sprite = (Sprite) future.get();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    fail("Interrupted waiting for a sprite");
+	} catch (ExecutionException e) {
+	    fail(e.getCause().getMessage());
+	}
+	return sprite;
+    }
+
+    // mark ref as the most recently used
+    private synchronized void touch(String ref) {
+	entries.get(ref);
+    }
+
+    // a decode has finished: count it against the budget and make room
+    private synchronized void admit(Load task, Sprite sprite) {
+	if (sprites.get(task.ref) != task) {
+	    // flushed while it was decoding
+	    return;
+	}
+	Entry e = (Entry) entries.get(task.ref);
+	if (e == null) {
+	    e = new Entry();
+	    entries.put(task.ref,e);
+	}
+	e.task = task;
+	e.sprite = sprite;
+	// a sprite decode() packed lives in the atlas, off the budget
+	e.bytes = sprite.getPage() != null ? 0 : bytes(sprite.getImage());
+	residentBytes += e.bytes;
+	evict();
+    }
+
+    // drop least recently used sprites until we're within budget
+    private void evict() {
+	for (Iterator it = entries.values().iterator(); residentBytes > budget && it.hasNext(); ) {
+	    Entry e = (Entry) it.next();
+	    if (e.pins > 0 || e.bytes == 0) {
+		continue;
+	    }
+	    it.remove();
+	    sprites.remove(e.task.ref,e.task);
+	    residentBytes -= e.bytes;
+	    evictions++;
+	}
+    }
+
+    // the memory an image takes up, as far as we can tell
+    private static long bytes(Image image) {
+	int bytesPerPixel = 4;
+	if (image instanceof BufferedImage) {
+	    ColorModel cm = ((BufferedImage) image).getColorModel();
+	    bytesPerPixel = (cm.getPixelSize()+7)/8;
+	}
+	return (long) image.getWidth(null)*image.getHeight(null)*bytesPerPixel;
+    }
+
+    private synchronized ExecutorService loader() {
+	if (loader == null) {
+	    // daemon threads, so a preload never keeps the game alive
+	    loader = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),new ThreadFactory() {
+		    public Thread newThread(Runnable r) {
+			Thread t = new Thread(r,"sprite-loader");
+			t.setDaemon(true);
+			return t;
+		    }
+		});
+	}
+	return loader;
+    }
+
+    /**
+     * Decode an image and make a sprite of it. Runs on whichever
+     * thread gets to the ref's task first.
+     */
+    private Sprite decode(String ref) throws IOException {
+	// go away and grab the sprite from the resource loader
 	BufferedImage sourceImage = null;
 			
-	try {
-	    // The ClassLoader.getResource() ensures we get the sprite
-	    // from the appropriate place, this helps with deploying the game
-	    // with things like webstart. You could equally do a file look
-	    // up here.
-	    URL url = this.getClass().getClassLoader().getResource(ref);
+	// The ClassLoader.getResource() ensures we get the sprite
+	// from the appropriate place, this helps with deploying the game
+	// with things like webstart. You could equally do a file look
+	// up here.
+	URL url = this.getClass().getClassLoader().getResource(ref);
 				
-	    if (url == null) {
-		fail("Can't find ref: "+ref);
-	    }
+	if (url == null) {
+	    throw new IOException("Can't find ref: "+ref);
+	}
 				
+	try {
 	    // use ImageIO to read the image in
 	    sourceImage = ImageIO.read(url);
 	} catch (IOException e) {
-	    fail("Failed to load: "+ref);
+	    throw new IOException("Failed to load: "+ref);
+	}
+	if (sourceImage == null) {
+	    throw new IOException("Not an image ImageIO can read: "+ref);
 	}
 			
 	// create an accelerated image of the right size to store our sprite in
-	GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
-	Image image = gc.createCompatibleImage(sourceImage.getWidth(),sourceImage.getHeight(),Transparency.BITMASK);
+	// (with no display there's no screen to be compatible with, so use
+	// a plain image; this lets headless tools and benchmarks load sprites)
+	Image image;
+	if (GraphicsEnvironment.isHeadless()) {
+	    image = new BufferedImage(sourceImage.getWidth(),sourceImage.getHeight(),BufferedImage.TYPE_INT_ARGB);
+	} else {
+	    GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+	    image = gc.createCompatibleImage(sourceImage.getWidth(),sourceImage.getHeight(),Transparency.BITMASK);
+	}
 			
 	// draw our source image into the accelerated image
 	image.getGraphics().drawImage(sourceImage,0,0,null);
 			
-	// create a sprite, add it the cache then return it
+	// create a sprite; its task keeps it in the cache. This is the only
+	// place the store packs: the sprite isn't published until the task
+	// completes, so no one can be drawing it while it moves
 	Sprite sprite = new Sprite(image);
-	sprites.put(ref,sprite);
-			
+	synchronized (this) {
+	    if (atlas != null) {
+		atlas.pack(sprite);
+	    }
+	}
 	return sprite;
     }
 		
+    /**
+     * Forget every cached sprite, so the next request for each
+     * is loaded afresh
+     */
+    synchronized void flush() {
+	sprites.clear();
+	// pinned refs stay pinned, ready for their next load
+	for (Iterator it = entries.values().iterator(); it.hasNext(); ) {
+	    Entry e = (Entry) it.next();
+	    e.task = null;
+	    e.sprite = null;
+	    e.bytes = 0;
+	    if (e.pins == 0) {
+		it.remove();
+	    }
+	}
+	residentBytes = 0;
+    }
+		
     /**
      * Utility method to handle resource loading failure
      * 
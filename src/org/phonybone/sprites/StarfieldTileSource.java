@@ -0,0 +1,41 @@
+package org.phonybone.sprites;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.util.Random;
+
+/**
+ * A field of stars, generated a tile at a time. Each tile's stars come
+ * from a generator seeded by the tile's position, so the field is the
+ * same however often a tile is redrawn, and any size of map costs
+ * nothing until it is looked at.
+ */
+public class StarfieldTileSource implements TileSource {
+    private long seed;
+    private int starsPerTile;
+    private Random random=new Random();
+    private Color[] shades=new Color[8];
+
+    public StarfieldTileSource(long seed, int starsPerTile) {
+	this.seed=seed;
+	this.starsPerTile=starsPerTile;
+	for (int i=0; i<shades.length; i++) {
+	    int v=64+i*191/(shades.length-1);
+	    shades[i]=new Color(v, v, v);
+	}
+    }
+
+    public void drawTile(Graphics2D g, int col, int row, int tileSize) {
+	random.setSeed(seed^(col*0x9E3779B97F4A7C15L)^(row*0xC2B2AE3D27D4EB4FL));
+	for (int i=0; i<starsPerTile; i++) {
+	    int x=random.nextInt(tileSize);
+	    int y=random.nextInt(tileSize);
+	    int shade=random.nextInt(shades.length);
+	    g.setColor(shades[shade]);
+	    if (shade==shades.length-1) {
+		g.fillRect(x, y, 2, 2);
+	    } else {
+		g.fillRect(x, y, 1, 1);
+	    }
+	}
+    }
+}
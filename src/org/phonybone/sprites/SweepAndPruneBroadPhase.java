@@ -0,0 +1,102 @@
+package org.phonybone.sprites;
+import java.util.ArrayList;
+
+/**
+ * Sweep and prune broad phase: entities are kept sorted by the left
+ * edge of their boxes and swept left to right, so each one is only
+ * compared with the entities whose x extent it overlaps.
+ * <p>
+ * The sort order is kept from one pass to the next. Things move a
+ * little per frame, so the order is nearly right already and an
+ * insertion sort repairs it in close to O(n); if it has to shift too
+ * much (the entity list changed a lot) we fall back to a full sort.
+ * Good for scenes spread along one axis; SpatialHashBroadPhase copes
+ * better with dense clumps.
+ */
+public class SweepAndPruneBroadPhase implements BroadPhase {
+    /** Entity indices, sorted by minX */
+    private int[] order=new int[0];
+    private int n;
+
+    private int[] minX=new int[0], minY=new int[0], maxX=new int[0], maxY=new int[0];
+    private Entity[] ents=new Entity[0];
+    /** Scratch for the full sort */
+    private long[] keys=new long[0];
+
+    public String getName() {
+	return "sweep-and-prune";
+    }
+
+    public void findPairs(ArrayList entities, CollisionHandler handler) {
+	int count=entities.size();
+	if (count!=n) resetOrder(count);
+	for (int i=0; i<n; i++) {
+	    Entity e=(Entity)entities.get(i);
+	    ents[i]=e;
+	    minX[i]=e.getX();
+	    minY[i]=e.getY();
+	    maxX[i]=minX[i]+e.getWidth();
+	    maxY[i]=minY[i]+e.getHeight();
+	}
+
+	if (!insertionSort(4*n+16)) fullSort();
+
+	for (int a=0; a<n; a++) {
+	    int i=order[a];
+	    int right=maxX[i];
+	    for (int b=a+1; b<n; b++) {
+		int j=order[b];
+		if (minX[j]>=right) break;
+		if (minY[i]<maxY[j] && minY[j]<maxY[i] && minX[i]<maxX[j]) {
+		    handler.collision(ents[i], ents[j]);
+		}
+	    }
+	}
+
+	for (int i=0; i<n; i++) ents[i]=null;
+    }
+
+    /*
+     * Repair the order from the last pass. Gives up (returning false)
+     * after maxShifts element moves.
+     */
+    private boolean insertionSort(int maxShifts) {
+	int shifts=0;
+	for (int a=1; a<n; a++) {
+	    int i=order[a];
+	    int key=minX[i];
+	    int b=a-1;
+	    while (b>=0 && minX[order[b]]>key) {
+		order[b+1]=order[b];
+		b--;
+		if (++shifts>maxShifts) {
+		    order[b+1]=i;
+		    return false;
+		}
+	    }
+	    order[b+1]=i;
+	}
+	return true;
+    }
+
+    private void fullSort() {
+	// minX in the high word, index in the low word: a primitive sort
+	for (int i=0; i<n; i++) keys[i]=((long)minX[i]<<32)|i;
+	java.util.Arrays.sort(keys, 0, n);
+	for (int a=0; a<n; a++) order[a]=(int)keys[a];
+    }
+
+    private void resetOrder(int count) {
+	n=count;
+	if (order.length<n) {
+	    order=new int[n];
+	    keys=new long[n];
+	    ents=new Entity[n];
+	    minX=new int[n];
+	    minY=new int[n];
+	    maxX=new int[n];
+	    maxY=new int[n];
+	}
+	for (int i=0; i<n; i++) order[i]=i;
+    }
+}
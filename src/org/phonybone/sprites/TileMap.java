@@ -0,0 +1,213 @@
+package org.phonybone.sprites;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+/**
+ * A background far bigger than the screen, cut into square tiles which
+ * are only drawn (by a TileSource) when they come into view. Each
+ * frame copies just the tiles under the camera onto the screen.
+ * <p>
+ * Drawn tiles are kept in a small cache sized to the view plus a ring
+ * of tiles around it. After drawing the view a few tiles of the ring
+ * are drawn ahead of time, so panning usually finds the next row or
+ * column ready. The least recently used tile's image is reused for the
+ * next one, so once the cache is full panning allocates nothing.
+ */
+public class TileMap {
+    /** How many tiles beyond the edges of the view to draw ahead */
+    private static final int PREFETCH_RING=1;
+
+    private TileSource source;
+    private int tileSize;
+    private int width, height;
+    private int cols, rows;
+    /** Tiles drawn ahead of time per frame, at most */
+    private int prefetchPerFrame=2;
+
+    // the cache: slot i holds tile keys[i] (-1 if empty), last used in frame used[i]
+    private long[] keys;
+    private Image[] images;
+    private long[] used;
+    private long frame;
+
+    private long tilesRasterized;
+    private int tilesDrawn;
+
+    /**
+     * @param source Draws the tiles
+     * @param width The width of the map in pixels
+     * @param height The height of the map in pixels
+     * @param tileSize The width and height of a tile in pixels
+     * @param viewWidth The width of the largest view the map is drawn into
+     * @param viewHeight The height of that view
+     */
+    public TileMap(TileSource source, int width, int height, int tileSize, int viewWidth, int viewHeight) {
+	this.source=source;
+	this.width=width;
+	this.height=height;
+	this.tileSize=tileSize;
+	this.cols=(width+tileSize-1)/tileSize;
+	this.rows=(height+tileSize-1)/tileSize;
+
+	// a view can straddle one more tile than it spans
+	int viewCols=(viewWidth+tileSize-1)/tileSize+1;
+	int viewRows=(viewHeight+tileSize-1)/tileSize+1;
+	int capacity=(viewCols+2*PREFETCH_RING)*(viewRows+2*PREFETCH_RING);
+	// and some slack, so panning back and forth finds recent tiles
+	capacity+=capacity/4;
+	keys=new long[capacity];
+	images=new Image[capacity];
+	used=new long[capacity];
+	for (int i=0; i<capacity; i++) keys[i]=-1;
+    }
+
+    public int getWidth() {
+	return width;
+    }
+
+    public int getHeight() {
+	return height;
+    }
+
+    public int getTileSize() {
+	return tileSize;
+    }
+
+    /** @return The number of tiles the cache holds */
+    public int getCapacity() {
+	return keys.length;
+    }
+
+    /** @return Tiles drawn by the TileSource since the map was made */
+    public long getTilesRasterized() {
+	return tilesRasterized;
+    }
+
+    /** @return Tiles copied to the screen in the last draw() */
+    public int getTilesDrawn() {
+	return tilesDrawn;
+    }
+
+    public void setPrefetchPerFrame(int prefetchPerFrame) {
+	this.prefetchPerFrame=prefetchPerFrame;
+    }
+
+    /**
+     * Draw the part of the map the camera sees, covering the whole
+     * view; anything beyond the edges of the map is black
+     *
+     * @param g Where to draw, with (0,0) the top left of the view
+     * @param camera Which part of the map to draw
+     */
+    public void draw(Graphics2D g, Camera camera) {
+	frame++;
+	int camX=camera.getX(), camY=camera.getY();
+	int viewW=camera.getWidth(), viewH=camera.getHeight();
+
+	if (camX+viewW>width || camY+viewH>height) {
+	    g.setColor(Color.black);
+	    g.fillRect(0, 0, viewW, viewH);
+	}
+
+	int c0=Math.max(camX/tileSize, 0);
+	int r0=Math.max(camY/tileSize, 0);
+	int c1=Math.min((camX+viewW-1)/tileSize, cols-1);
+	int r1=Math.min((camY+viewH-1)/tileSize, rows-1);
+
+	tilesDrawn=0;
+	for (int r=r0; r<=r1; r++) {
+	    for (int c=c0; c<=c1; c++) {
+		g.drawImage(tile(c, r), c*tileSize-camX, r*tileSize-camY, null);
+		tilesDrawn++;
+	    }
+	}
+
+	prefetch(c0, r0, c1, r1);
+    }
+
+    // draw up to prefetchPerFrame missing tiles in the ring around the view
+    private void prefetch(int c0, int r0, int c1, int r1) {
+	int budget=prefetchPerFrame;
+	int pc0=Math.max(c0-PREFETCH_RING, 0), pc1=Math.min(c1+PREFETCH_RING, cols-1);
+	int pr0=Math.max(r0-PREFETCH_RING, 0), pr1=Math.min(r1+PREFETCH_RING, rows-1);
+	for (int r=pr0; r<=pr1 && budget>0; r++) {
+	    for (int c=pc0; c<=pc1 && budget>0; c++) {
+		if (c>=c0 && c<=c1 && r>=r0 && r<=r1) continue;
+		long key=key(c, r);
+		int slot=find(key);
+		if (slot>=0) {
+		    used[slot]=frame;
+		    continue;
+		}
+		slot=victim();
+		if (used[slot]==frame) {
+		    // the cache is all in use this frame; don't throw out the view
+		    return;
+		}
+		rasterize(slot, key, c, r);
+		budget--;
+	    }
+	}
+    }
+
+    // the image of tile (c,r), drawing it if it isn't cached
+    private Image tile(int c, int r) {
+	long key=key(c, r);
+	int slot=find(key);
+	if (slot<0) {
+	    slot=victim();
+	    rasterize(slot, key, c, r);
+	}
+	used[slot]=frame;
+	return images[slot];
+    }
+
+    private void rasterize(int slot, long key, int c, int r) {
+	if (images[slot]==null) {
+	    images[slot]=createImage(tileSize, tileSize);
+	}
+	Graphics2D g=(Graphics2D)images[slot].getGraphics();
+	g.setColor(Color.black);
+	g.fillRect(0, 0, tileSize, tileSize);
+	source.drawTile(g, c, r, tileSize);
+	g.dispose();
+	keys[slot]=key;
+	used[slot]=frame;
+	tilesRasterized++;
+    }
+
+    private int find(long key) {
+	for (int i=0; i<keys.length; i++) {
+	    if (keys[i]==key) return i;
+	}
+	return -1;
+    }
+
+    // an empty slot, or else the least recently used one
+    private int victim() {
+	int best=0;
+	for (int i=0; i<keys.length; i++) {
+	    if (keys[i]==-1) return i;
+	    if (used[i]<used[best]) best=i;
+	}
+	return best;
+    }
+
+    private static long key(int c, int r) {
+	return ((long)c<<32)|r;
+    }
+
+    // an image suited to the screen, or a plain one when there's no screen
+    private static Image createImage(int width, int height) {
+	if (GraphicsEnvironment.isHeadless()) {
+	    return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+	}
+	GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+	return gc.createCompatibleImage(width, height, Transparency.OPAQUE);
+    }
+}
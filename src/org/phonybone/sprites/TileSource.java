@@ -0,0 +1,16 @@
+package org.phonybone.sprites;
+import java.awt.Graphics2D;
+
+/**
+ * Draws the contents of the tiles of a TileMap. A tile may be asked
+ * for again whenever it drops out of the map's cache, so the same
+ * (col,row) must always draw the same picture.
+ */
+public interface TileSource {
+    /**
+     * Draw tile (col,row), which covers world pixels from
+     * (col*tileSize,row*tileSize), into g at (0,0). The tile image
+     * has been cleared to black.
+     */
+    public void drawTile(Graphics2D g, int col, int row, int tileSize);
+}
@@ -0,0 +1,49 @@
+package org.phonybone.sprites;
+
+/**
+ * Wraps a ForceEngine and adds up the time spent in it, so the force
+ * pass can be told apart from the rest of an integrator step. Partial
+ * force requests are passed on if the engine supports them, and
+ * otherwise become a full pass.
+ */
+public class TimedForceEngine implements PartialForceEngine {
+    private ForceEngine engine;
+    private long nanos;
+
+    public TimedForceEngine(ForceEngine engine) {
+	this.engine=engine;
+    }
+
+    public ForceEngine getEngine() {
+	return engine;
+    }
+
+    public void sumForces(BodyStore bodies) {
+	long t0=System.nanoTime();
+	engine.sumForces(bodies);
+	nanos+=System.nanoTime()-t0;
+    }
+
+    public void sumForces(BodyStore bodies, int[] active, int count) {
+	long t0=System.nanoTime();
+	if (engine instanceof PartialForceEngine) {
+	    ((PartialForceEngine)engine).sumForces(bodies, active, count);
+	} else {
+	    engine.sumForces(bodies);
+	}
+	nanos+=System.nanoTime()-t0;
+    }
+
+    public String getName() {
+	return engine.getName();
+    }
+
+    /**
+     * @return The time spent in sumForces since the last call, and start again
+     */
+    public long takeNanos() {
+	long n=nanos;
+	nanos=0;
+	return n;
+    }
+}
@@ -0,0 +1,168 @@
+package org.phonybone.sprites;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads back a file written by TrajectoryRecorder, one recorded step
+ * at a time:
+ * <pre>
+ *   TrajectoryReader in=new TrajectoryReader(file);
+ *   while (in.next()) ... in.getStep(), in.getX(i), in.getY(i) ...
+ *   in.close();
+ * </pre>
+ */
+public class TrajectoryReader {
+    private DataInputStream in;
+    private Inflater inflater=new Inflater();
+    private byte[] packed=new byte[0], raw=new byte[0];
+
+    // the current chunk, decoded
+    private int bodies;
+    private int steps;
+    private long[] stepNumbers=new long[0];
+    private long[] bits=new long[0];
+    private int at=-1;
+    // positions at the current step
+    private double[] x=new double[0], y=new double[0];
+    private long[] lastX=new long[0], lastY=new long[0];
+
+    public TrajectoryReader(File file) throws IOException {
+	this(new FileInputStream(file));
+    }
+
+    public TrajectoryReader(InputStream in) throws IOException {
+	this.in=new DataInputStream(new BufferedInputStream(in, 1<<16));
+	if (this.in.readInt()!=TrajectoryRecorder.MAGIC) throw new IOException("Not a trajectory file");
+	int version=this.in.readInt();
+	if (version!=TrajectoryRecorder.VERSION) throw new IOException("Trajectory version "+version+", expected "+TrajectoryRecorder.VERSION);
+    }
+
+    /**
+     * Move to the next recorded step
+     *
+     * @return false at the end of the file
+     */
+    public boolean next() throws IOException {
+	if (at<0 || at+1==steps) {
+	    if (!readChunk()) return false;
+	    at=0;
+	} else {
+	    at++;
+	}
+	int n=bodies;
+	int base=2*n*at;
+	for (int i=0; i<n; i++) {
+	    lastX[i]^=bits[base+i];
+	    lastY[i]^=bits[base+n+i];
+	    x[i]=Double.longBitsToDouble(lastX[i]);
+	    y[i]=Double.longBitsToDouble(lastY[i]);
+	}
+	return true;
+    }
+
+    /** @return The step number of the current step */
+    public long getStep() {
+	return stepNumbers[at];
+    }
+
+    /** @return The number of bodies at the current step */
+    public int size() {
+	return bodies;
+    }
+
+    public double getX(int i) {
+	return x[i];
+    }
+
+    public double getY(int i) {
+	return y[i];
+    }
+
+    public void close() throws IOException {
+	in.close();
+	inflater.end();
+    }
+
+    private boolean readChunk() throws IOException {
+	int n, count, length;
+	try {
+	    n=in.readInt();
+	} catch (EOFException e) {
+	    return false;
+	}
+	count=in.readInt();
+	length=in.readInt();
+	if (n<0 || count<=0 || length<0) throw new IOException("Corrupt trajectory chunk");
+	long size=8*(count+2L*n*count);
+	if (size>Integer.MAX_VALUE) throw new IOException("Trajectory chunk too big: "+size+" bytes");
+	if (packed.length<length) packed=new byte[length];
+	in.readFully(packed, 0, length);
+
+	int words=(int)(size/8);
+	if (raw.length<8*words) raw=new byte[8*words];
+	inflater.reset();
+	inflater.setInput(packed, 0, length);
+	try {
+	    int got=0;
+	    while (got<8*words && !inflater.finished()) {
+		int k=inflater.inflate(raw, got, 8*words-got);
+		if (k==0 && inflater.needsInput()) break;
+		got+=k;
+	    }
+	    if (got!=8*words) throw new IOException("Truncated trajectory chunk");
+	} catch (DataFormatException e) {
+	    throw new IOException("Corrupt trajectory chunk: "+e.getMessage());
+	}
+
+	if (stepNumbers.length<count) stepNumbers=new long[count];
+	if (bits.length<words-count) bits=new long[words-count];
+	int k=0;
+	for (int s=0; s<count; s++) {
+	    long v=0;
+	    for (int b=0; b<8; b++) v=(v<<8)|(raw[k++]&0xff);
+	    stepNumbers[s]=v;
+	}
+	int m=words-count;
+	for (int i=0; i<m; i++) bits[i]=0;
+	for (int shift=56; shift>=0; shift-=8) {
+	    for (int i=0; i<m; i++) bits[i]|=(long)(raw[k++]&0xff)<<shift;
+	}
+
+	bodies=n;
+	steps=count;
+	if (x.length<n) {
+	    x=new double[n];
+	    y=new double[n];
+	    lastX=new long[n];
+	    lastY=new long[n];
+	}
+	// each chunk starts from whole positions
+	for (int i=0; i<n; i++) {
+	    lastX[i]=0;
+	    lastY[i]=0;
+	}
+	return true;
+    }
+
+    /**
+     * Print a trajectory file, one line per body per step.
+     * <p>
+     * Usage: TrajectoryReader file
+     */
+    public static void main(String argv[]) throws IOException {
+	TrajectoryReader in=new TrajectoryReader(new File(argv[0]));
+	while (in.next()) {
+	    for (int i=0; i<in.size(); i++) {
+		System.out.println(in.getStep()+" "+i+" "+in.getX(i)+" "+in.getY(i));
+	    }
+	}
+	in.close();
+    }
+}
@@ -0,0 +1,336 @@
+package org.phonybone.sprites;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * Records the bodies' positions, step after step, to a file, without
+ * holding up the simulation. Attach it to a SimulationRunner as its
+ * RenderStage; each call copies the positions into the current chunk,
+ * and full chunks are compressed and written by a background thread.
+ * The simulation only waits when every chunk is queued for the writer,
+ * i.e. when the disk can't keep up.
+ * <p>
+ * A chunk is a fixed number of bytes (CHUNK_BYTES unless told
+ * otherwise) and holds as many steps as fit, at 16 bytes per body per
+ * step, up to MAX_STEPS: 64 steps of a few thousand bodies, four of a
+ * million. So memory is bounded by the number of chunks, however many
+ * bodies there are.
+ * <p>
+ * Within a chunk each position is stored as the bits of the double
+ * XORed with the same body's bits the step before (the first step is
+ * stored whole, so chunks decode on their own). Bodies move little
+ * per step, so the high bytes are mostly zero; the chunk is then laid
+ * out byte plane by byte plane, so those zeros sit together, and
+ * Huffman coded. Nothing is lost: TrajectoryReader gives back the exact
+ * doubles.
+ * <p>
+ * The file is a header (magic "SPTR", version) followed by chunks:
+ * <pre>
+ *   int bodies, int steps, int compressed length, byte[length]
+ * </pre>
+ * which inflate to the steps' numbers (long each) and then, in byte
+ * planes, the XORed x and y of every body for every step. A change in
+ * the number of bodies starts a new chunk.
+ * <p>
+ * If the writer fails, on a write error or for want of memory, the
+ * next render() throws, and so does close().
+ */
+public class TrajectoryRecorder implements RenderStage {
+    static final int MAGIC=0x53505452;	// "SPTR"
+    static final int VERSION=1;
+    /** The default size of a chunk's positions, in bytes */
+    public static final long CHUNK_BYTES=64L<<20;
+    /** The most steps in a chunk, however few the bodies */
+    public static final int MAX_STEPS=64;
+    // the largest chunk, so its bytes (and the writer's buffers) fit in
+    // an array
+    private static final long MAX_BYTES=1L<<30;
+
+    private long chunkBytes;
+    private DataOutputStream out;
+    private BlockingQueue free;
+    private BlockingQueue full;
+    private Thread writer;
+    private volatile Throwable failure;
+
+    // the chunk being filled, touched only by the simulation thread
+    private Chunk chunk;
+    private long recorded;
+    private long stalls;
+    private long stallNanos;
+    private boolean closed;
+
+    /** A block of steps: the raw positions, as the simulation wrote them */
+    static class Chunk {
+	int bodies;
+	int steps;
+	/** The steps it has room for, at this many bodies */
+	int capacity;
+	long[] stepNumbers;
+	long[] bits;	// [step][x 0..n-1, y 0..n-1], XORed with the step before
+	long[] lastX, lastY;
+
+	Chunk() {
+	    stepNumbers=new long[0];
+	    bits=new long[0];
+	    lastX=new long[0];
+	    lastY=new long[0];
+	}
+
+	void reset(int bodies, int capacity) {
+	    this.bodies=bodies;
+	    this.steps=0;
+	    this.capacity=capacity;
+	    if (stepNumbers.length<capacity) stepNumbers=new long[capacity];
+	    // the chunk size keeps this inside an int
+	    int words=(int)(2L*bodies*capacity);
+	    if (bits.length<words) {
+		bits=null;
+		bits=new long[words];
+	    }
+	    if (lastX.length<bodies) {
+		lastX=new long[bodies];
+		lastY=new long[bodies];
+	    }
+	    for (int i=0; i<bodies; i++) {
+		lastX[i]=0;
+		lastY[i]=0;
+	    }
+	}
+    }
+
+    /** Handed to the writer thread to tell it to stop */
+    private static final Chunk END=new Chunk();
+
+    public TrajectoryRecorder(File file) throws IOException {
+	this(new FileOutputStream(file), CHUNK_BYTES, 4);
+    }
+
+    /**
+     * @param out Where to write; closed by close()
+     * @param chunkBytes The size of each chunk's positions; a chunk
+     *        always takes at least one step, however many bodies
+     * @param chunks How many chunks may be filled or queued at once;
+     *        the simulation waits if all of them are with the writer
+     */
+    public TrajectoryRecorder(OutputStream out, long chunkBytes, int chunks) throws IOException {
+	if (chunkBytes<16 || chunkBytes>MAX_BYTES) throw new IllegalArgumentException("chunk size must be 16.."+MAX_BYTES+": "+chunkBytes);
+	this.chunkBytes=chunkBytes;
+	this.out=new DataOutputStream(new BufferedOutputStream(out, 1<<16));
+	this.out.writeInt(MAGIC);
+	this.out.writeInt(VERSION);
+	free=new ArrayBlockingQueue(chunks);
+	full=new ArrayBlockingQueue(chunks+1);
+	for (int i=0; i<chunks; i++) free.add(new Chunk());
+	writer=new Thread("trajectory writer") {
+		public void run() {
+		    write();
+		}
+	    };
+	writer.setDaemon(true);
+	writer.start();
+    }
+
+    /**
+     * Record the bodies' positions after a step
+     *
+     * @throws IllegalStateException If the writer has failed
+     */
+    public void render(BodyStore bodies, long step) {
+	if (failure!=null) throw new IllegalStateException("trajectory writer failed: "+failure, failure);
+	if (closed) return;
+	int n=bodies.size();
+	if (chunk!=null && chunk.bodies!=n) hand(chunk);
+	if (chunk==null) {
+	    if (16L*n>MAX_BYTES) throw new IllegalArgumentException("too many bodies to record: "+n);
+	    chunk=take();
+	    chunk.reset(n, stepsPerChunk(n));
+	}
+
+	long[] bits=chunk.bits;
+	long[] lastX=chunk.lastX, lastY=chunk.lastY;
+	int at=2*n*chunk.steps;
+	for (int i=0; i<n; i++) {
+	    long b=Double.doubleToRawLongBits(bodies.x[i]);
+	    bits[at+i]=b^lastX[i];
+	    lastX[i]=b;
+	    b=Double.doubleToRawLongBits(bodies.y[i]);
+	    bits[at+n+i]=b^lastY[i];
+	    lastY[i]=b;
+	}
+	chunk.stepNumbers[chunk.steps++]=step;
+	recorded++;
+	if (chunk.steps==chunk.capacity) {
+	    hand(chunk);
+	}
+    }
+
+    /**
+     * Write out what's been recorded, wait for the writer and close
+     * the file
+     *
+     * @throws IOException If any write failed, or the writer died
+     */
+    public void close() throws IOException {
+	if (closed) return;
+	closed=true;
+	if (chunk!=null) hand(chunk);
+	put(full, END);
+	boolean interrupted=false;
+	while (writer.isAlive()) {
+	    try {
+		writer.join();
+	    } catch (InterruptedException e) {
+		interrupted=true;
+	    }
+	}
+	if (interrupted) Thread.currentThread().interrupt();
+	try {
+	    out.close();
+	} catch (IOException e) {
+	    if (failure==null) failure=e;
+	} catch (RuntimeException e) {
+	    if (failure==null) failure=e;
+	}
+	if (failure instanceof IOException) throw (IOException)failure;
+	if (failure!=null) throw new IOException("trajectory writer failed: "+failure, failure);
+    }
+
+    /** @return The number of steps recorded */
+    public long getStepsRecorded() {
+	return recorded;
+    }
+
+    /** @return How many times the simulation had to wait for the writer */
+    public long getStalls() {
+	return stalls;
+    }
+
+    /** @return The total time the simulation spent waiting for the writer */
+    public long getStallNanos() {
+	return stallNanos;
+    }
+
+    // as many steps of n bodies as fit in a chunk, at least one
+    private int stepsPerChunk(int n) {
+	return (int)Math.max(1, Math.min(MAX_STEPS, chunkBytes/(16L*Math.max(n, 1))));
+    }
+
+    private void hand(Chunk c) {
+	chunk=null;
+	if (c.steps>0) put(full, c);
+	else put(free, c);
+    }
+
+    // a free chunk, waiting for one if the writer has them all
+    private Chunk take() {
+	Chunk c=(Chunk)free.poll();
+	if (c!=null) return c;
+	stalls++;
+	long t0=System.nanoTime();
+	boolean interrupted=false;
+	while (true) {
+	    try {
+		c=(Chunk)free.take();
+		break;
+	    } catch (InterruptedException e) {
+		interrupted=true;
+	    }
+	}
+	stallNanos+=System.nanoTime()-t0;
+	if (interrupted) Thread.currentThread().interrupt();
+	return c;
+    }
+
+    private static void put(BlockingQueue queue, Chunk c) {
+	boolean interrupted=false;
+	while (true) {
+	    try {
+		queue.put(c);
+		break;
+	    } catch (InterruptedException e) {
+		interrupted=true;
+	    }
+	}
+	if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    // the writer thread: compress and write chunks until END. Once
+    // something has failed it only hands chunks back, so the simulation
+    // is never left waiting on a writer that has stopped
+    private void write() {
+	Deflater deflater=new Deflater(Deflater.BEST_SPEED);
+	// the shuffled zeros need only entropy coding; skipping the match
+	// search is half again as fast for a file about a fifth bigger
+	deflater.setStrategy(Deflater.HUFFMAN_ONLY);
+	byte[] raw=new byte[0], packed=new byte[0];
+	while (true) {
+	    Chunk c;
+	    try {
+		c=(Chunk)full.take();
+	    } catch (InterruptedException e) {
+		continue;
+	    }
+	    if (c==END) break;
+	    try {
+		if (failure==null) {
+		    // the chunk size keeps these inside an int
+		    int words=(int)(c.steps+2L*c.bodies*c.steps);
+		    int bytes=8*words;
+		    if (raw.length<bytes) {
+			raw=null;
+			packed=null;
+			raw=new byte[bytes];
+			packed=new byte[bytes+bytes/1000+64];
+		    }
+		    shuffle(c, raw, words);
+		    deflater.reset();
+		    deflater.setInput(raw, 0, bytes);
+		    deflater.finish();
+		    int length=0;
+		    while (!deflater.finished()) {
+			if (length==packed.length) {
+			    byte[] more=new byte[2*packed.length];
+			    System.arraycopy(packed, 0, more, 0, length);
+			    packed=more;
+			}
+			length+=deflater.deflate(packed, length, packed.length-length);
+		    }
+		    out.writeInt(c.bodies);
+		    out.writeInt(c.steps);
+		    out.writeInt(length);
+		    out.write(packed, 0, length);
+		}
+	    } catch (Throwable t) {
+		// e.g. an OutOfMemoryError: drop the buffers and report it
+		raw=new byte[0];
+		packed=new byte[0];
+		if (failure==null) failure=t;
+	    } finally {
+		put(free, c);
+	    }
+	}
+	deflater.end();
+    }
+
+    // the step numbers, then every word's byte 7 (top), byte 6, ... byte 0
+    private static void shuffle(Chunk c, byte[] raw, int words) {
+	int k=0;
+	for (int s=0; s<c.steps; s++) {
+	    long v=c.stepNumbers[s];
+	    for (int shift=56; shift>=0; shift-=8) raw[k++]=(byte)(v>>>shift);
+	}
+	int n=words-c.steps;
+	long[] bits=c.bits;
+	for (int shift=56; shift>=0; shift-=8) {
+	    for (int i=0; i<n; i++) raw[k++]=(byte)(bits[i]>>>shift);
+	}
+    }
+}